@@ -3,10 +3,12 @@ package com.bca.banking;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class BCABankingApplication extends SpringBootServletInitializer {
-
+    
     public static void main(String[] args) {
         SpringApplication.run(BCABankingApplication.class, args);
     }
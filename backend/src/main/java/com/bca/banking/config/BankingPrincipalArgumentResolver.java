@@ -0,0 +1,32 @@
+package com.bca.banking.config;
+
+import com.bca.banking.security.BankingPrincipal;
+import org.springframework.core.MethodParameter;
+import org.springframework.lang.NonNull;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+// Resolves BankingPrincipal handler parameters from the SecurityContext; null when the request is not authenticated
+@Component
+public class BankingPrincipalArgumentResolver implements HandlerMethodArgumentResolver {
+    
+    @Override
+    public boolean supportsParameter(@NonNull MethodParameter parameter) {
+        return BankingPrincipal.class.equals(parameter.getParameterType());
+    }
+    
+    @Override
+    public Object resolveArgument(@NonNull MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  @NonNull NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof BankingPrincipal principal) {
+            return principal;
+        }
+        return null;
+    }
+}
@@ -17,6 +17,7 @@ import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Component
 public class DataInitializer implements CommandLineRunner {
@@ -59,7 +60,6 @@ public class DataInitializer implements CommandLineRunner {
             account1.setBalance(new BigDecimal("5000.00"));
             account1.setDescription("Main Chequing Account");
             account1.setUser(user);
-            account1 = accountRepository.save(account1);
             
             Account account2 = new Account();
             account2.setAccountNumber("BCA007654321");
@@ -67,7 +67,7 @@ public class DataInitializer implements CommandLineRunner {
             account2.setBalance(new BigDecimal("15000.50"));
             account2.setDescription("Savings Account");
             account2.setUser(user);
-            account2 = accountRepository.save(account2);
+            accountRepository.saveAll(List.of(account1, account2));
             
             // Create sample transactions
             Transaction t1 = new Transaction();
@@ -76,7 +76,6 @@ public class DataInitializer implements CommandLineRunner {
             t1.setDescription("Salary Deposit");
             t1.setDate(LocalDateTime.now().minusDays(5));
             t1.setAccount(account1);
-            transactionRepository.save(t1);
             
             Transaction t2 = new Transaction();
             t2.setType("DEBIT");
@@ -84,7 +83,6 @@ public class DataInitializer implements CommandLineRunner {
             t2.setDescription("Grocery Store Purchase");
             t2.setDate(LocalDateTime.now().minusDays(3));
             t2.setAccount(account1);
-            transactionRepository.save(t2);
             
             Transaction t3 = new Transaction();
             t3.setType("CREDIT");
@@ -92,7 +90,6 @@ public class DataInitializer implements CommandLineRunner {
             t3.setDescription("Transfer from Savings");
             t3.setDate(LocalDateTime.now().minusDays(1));
             t3.setAccount(account1);
-            transactionRepository.save(t3);
             
             Transaction t4 = new Transaction();
             t4.setType("DEPOSIT");
@@ -100,7 +97,7 @@ public class DataInitializer implements CommandLineRunner {
             t4.setDescription("Initial Deposit");
             t4.setDate(LocalDateTime.now().minusDays(10));
             t4.setAccount(account2);
-            transactionRepository.save(t4);
+            transactionRepository.saveAll(List.of(t1, t2, t3, t4));
             
             // Create sample payees
             Payee payee1 = new Payee();
@@ -108,28 +105,25 @@ public class DataInitializer implements CommandLineRunner {
             payee1.setAccountNumber("HQ123456789");
             payee1.setCategory("UTILITY");
             payee1.setUser(user);
-            payeeRepository.save(payee1);
             
             Payee payee2 = new Payee();
             payee2.setName("Visa Credit Card");
             payee2.setAccountNumber("****1234");
             payee2.setCategory("CREDIT_CARD");
             payee2.setUser(user);
-            payeeRepository.save(payee2);
             
             Payee payee3 = new Payee();
             payee3.setName("Rogers Communications");
             payee3.setAccountNumber("RG987654321");
             payee3.setCategory("UTILITY");
             payee3.setUser(user);
-            payeeRepository.save(payee3);
             
             Payee payee4 = new Payee();
             payee4.setName("Bell Canada");
             payee4.setAccountNumber("BC456789012");
             payee4.setCategory("UTILITY");
             payee4.setUser(user);
-            payeeRepository.save(payee4);
+            payeeRepository.saveAll(List.of(payee1, payee2, payee3, payee4));
             
             logger.info("DataInitializer: Demo user and sample data created successfully!");
         } else {
@@ -0,0 +1,18 @@
+package com.bca.banking.config;
+
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.LocalDateTime;
+
+@Configuration
+public class JacksonConfig {
+    
+    // Registered after the java.time module, so it replaces that module's LocalDateTime serializer everywhere the
+    // application ObjectMapper is used (responses, exports, statements, server-sent events)
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer localDateTimeSerializer() {
+        return builder -> builder.serializerByType(LocalDateTime.class, new IsoLocalDateTimeSerializer());
+    }
+}
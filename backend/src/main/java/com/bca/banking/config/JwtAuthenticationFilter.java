@@ -1,5 +1,7 @@
 package com.bca.banking.config;
 
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.security.TokenRevocationService;
 import com.bca.banking.util.JwtUtil;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -14,16 +16,19 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
     
+    private static final List<SimpleGrantedAuthority> AUTHORITIES = List.of(new SimpleGrantedAuthority("ROLE_USER"));
+    
     @Autowired
     private JwtUtil jwtUtil;
     
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+    
     @Override
     protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull FilterChain filterChain)
             throws ServletException, IOException {
@@ -36,24 +41,18 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
         
         try {
-            final String token = authHeader.substring(7);
-            final String username = jwtUtil.extractUsername(token);
-            final Long userId = jwtUtil.extractUserId(token);
-            
-            if (username != null && userId != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                // Validate token expiration
-                if (jwtUtil.validateToken(token, username)) {
-                    // Store userId in authentication details
-                    Map<String, Object> details = new HashMap<>();
-                    details.put("userId", userId);
-                    details.put("username", username);
-                    
+            if (SecurityContextHolder.getContext().getAuthentication() == null) {
+                // Single verification per request; signature and expiry are checked by the parser
+                final BankingPrincipal principal = jwtUtil.parseToken(authHeader.substring(7));
+                
+                // Revocation is checked in memory on every request, including cache hits
+                if (principal.username() != null && principal.userId() != null && !tokenRevocationService.isRevoked(principal)) {
+                    // The principal itself carries userId/username; controllers receive it via BankingPrincipalArgumentResolver
                     UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
-                            username,
+                            principal,
                             null,
-                            Collections.singletonList(new SimpleGrantedAuthority("ROLE_USER"))
+                            AUTHORITIES
                     );
-                    authentication.setDetails(details);
                     SecurityContextHolder.getContext().setAuthentication(authentication);
                 }
             }
@@ -0,0 +1,19 @@
+package com.bca.banking.config;
+
+import com.zaxxer.hikari.SQLExceptionOverride;
+
+import java.sql.SQLException;
+
+// Hikari evicts a pooled connection on any SQLTimeoutException, and H2 reports a lock wait that timed out as one.
+// The connection is healthy, though, and evicting it closes it under the transaction that has yet to roll back, so
+// the rollback fails and hides the lock conflict from the code that would retry it. Lock timeouts keep the connection.
+public class LockTimeoutExceptionOverride implements SQLExceptionOverride {
+    
+    // org.h2.api.ErrorCode.LOCK_TIMEOUT_1; H2 is only on the runtime classpath
+    private static final int H2_LOCK_TIMEOUT = 50200;
+    
+    @java.lang.Override
+    public Override adjudicate(SQLException e) {
+        return e.getErrorCode() == H2_LOCK_TIMEOUT ? Override.DO_NOT_EVICT : Override.CONTINUE_EVICT;
+    }
+}
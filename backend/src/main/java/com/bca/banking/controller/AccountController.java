@@ -1,17 +1,18 @@
 package com.bca.banking.controller;
 
-import com.bca.banking.model.Account;
+import com.bca.banking.dto.AccountBalance;
+import com.bca.banking.dto.AccountView;
+import com.bca.banking.security.BankingPrincipal;
 import com.bca.banking.service.AccountService;
+import com.bca.banking.service.ResourceVersionService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/accounts")
@@ -21,66 +22,54 @@ public class AccountController {
     @Autowired
     private AccountService accountService;
     
-    private Long getUserIdFromAuthentication() {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        if (authentication != null && authentication.getDetails() instanceof Map) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> details = (Map<String, Object>) authentication.getDetails();
-            Object userIdObj = details.get("userId");
-            if (userIdObj instanceof Long) {
-                return (Long) userIdObj;
-            } else if (userIdObj instanceof Number) {
-                return ((Number) userIdObj).longValue();
-            }
-        }
-        return null;
-    }
+    @Autowired
+    private ResourceVersionService resourceVersionService;
     
     @GetMapping
-    public ResponseEntity<?> getAccounts() {
+    public ResponseEntity<?> getAccounts(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                         BankingPrincipal principal) {
         try {
-            Long userId = getUserIdFromAuthentication();
-            if (userId == null) {
+            if (principal == null) {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
+            // Taken before the read, so a change committed meanwhile moves the tag on past this response
+            String etag = resourceVersionService.userEtag(principal.userId());
+            if (ResourceVersionService.matches(ifNoneMatch, etag)) {
+                return ResourceVersionService.notModified(etag);
+            }
             
-            List<Account> accounts = accountService.getAccountsByUserId(userId);
-            List<Map<String, Object>> accountList = accounts.stream()
-                    .map(account -> {
-                        Map<String, Object> accountMap = new HashMap<>();
-                        accountMap.put("id", account.getId());
-                        accountMap.put("accountNumber", account.getAccountNumber());
-                        accountMap.put("accountType", account.getAccountType());
-                        accountMap.put("balance", account.getBalance());
-                        accountMap.put("description", account.getDescription());
-                        return accountMap;
-                    })
-                    .collect(Collectors.toList());
+            List<AccountView> accounts = accountService.getAccountsByUserId(principal.userId());
             
-            return ResponseEntity.ok(accountList);
+            return ResponseEntity.ok().eTag(etag).cacheControl(ResourceVersionService.CACHE_CONTROL).body(accounts);
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("message", "Error fetching accounts"));
         }
     }
     
     @GetMapping("/{accountId}/balance")
-    public ResponseEntity<?> getAccountBalance(@PathVariable Long accountId) {
+    public ResponseEntity<?> getAccountBalance(@PathVariable Long accountId,
+                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                               BankingPrincipal principal) {
         try {
-            Long userId = getUserIdFromAuthentication();
-            if (userId == null) {
+            if (principal == null) {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
+            String etag = resourceVersionService.accountEtag(accountId);
+            if (ResourceVersionService.matches(ifNoneMatch, etag)
+                    && principal.userId().equals(accountService.getCachedOwnerId(accountId))) {
+                return ResourceVersionService.notModified(etag);
+            }
             
+            Optional<Long> ownerId = accountService.getOwnerId(accountId);
+            if (ownerId.isEmpty()) {
+                return ResponseEntity.status(404).body(Map.of("message", "Account not found"));
+            }
+            if (!ownerId.get().equals(principal.userId())) {
+                return ResponseEntity.status(403).body(Map.of("message", "Forbidden"));
+            }
             return accountService.getAccountById(accountId)
-                    .map(account -> {
-                        if (!account.getUser().getId().equals(userId)) {
-                            return ResponseEntity.status(403).body(Map.of("message", "Forbidden"));
-                        }
-                        Map<String, Object> response = new HashMap<>();
-                        response.put("balance", account.getBalance());
-                        response.put("accountNumber", account.getAccountNumber());
-                        return ResponseEntity.ok(response);
-                    })
+                    .<ResponseEntity<?>>map(account -> ResponseEntity.ok().eTag(etag).cacheControl(ResourceVersionService.CACHE_CONTROL)
+                            .body(new AccountBalance(account.balance(), account.accountNumber())))
                     .orElse(ResponseEntity.status(404).body(Map.of("message", "Account not found")));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("message", "Error fetching balance"));
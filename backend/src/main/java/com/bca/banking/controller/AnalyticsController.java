@@ -0,0 +1,69 @@
+package com.bca.banking.controller;
+
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.service.AccountService;
+import com.bca.banking.service.RollupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/accounts/{accountId}/analytics")
+@CrossOrigin(origins = "*")
+public class AnalyticsController {
+    
+    @Autowired
+    private RollupService rollupService;
+    
+    @Autowired
+    private AccountService accountService;
+    
+    // Income, spending and per-type totals per day or month. Defaults: the last 12 months, or the last 31 days.
+    @GetMapping
+    public ResponseEntity<?> getSpending(
+            @PathVariable Long accountId,
+            @RequestParam(defaultValue = "month") String granularity,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            BankingPrincipal principal) {
+        try {
+            if (principal == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+            boolean monthly = "month".equalsIgnoreCase(granularity);
+            if (!monthly && !"day".equalsIgnoreCase(granularity)) {
+                return ResponseEntity.status(400).body(Map.of("message", "Granularity must be day or month"));
+            }
+            LocalDate end = to != null ? to : LocalDate.now();
+            LocalDate start = from != null ? from : monthly ? end.minusMonths(11).withDayOfMonth(1) : end.minusDays(30);
+            if (start.isAfter(end)) {
+                return ResponseEntity.status(400).body(Map.of("message", "from must not be after to"));
+            }
+            if (monthly) {
+                // A month is keyed by its first day
+                start = start.withDayOfMonth(1);
+            }
+            LocalDate periodFrom = start;
+            
+            return accountService.getOwnerId(accountId)
+                    .map(ownerId -> {
+                        if (!ownerId.equals(principal.userId())) {
+                            return ResponseEntity.status(403).body(Map.of("message", "Forbidden"));
+                        }
+                        return ResponseEntity.ok(Map.of(
+                                "granularity", monthly ? RollupService.MONTH : RollupService.DAY,
+                                "from", periodFrom,
+                                "to", end,
+                                "periods", rollupService.getSpending(accountId, monthly ? RollupService.MONTH : RollupService.DAY,
+                                        periodFrom, end)));
+                    })
+                    .orElse(ResponseEntity.status(404).body(Map.of("message", "Account not found")));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(Map.of("message", "Error fetching analytics"));
+        }
+    }
+}
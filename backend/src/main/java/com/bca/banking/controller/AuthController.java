@@ -1,16 +1,23 @@
 package com.bca.banking.controller;
 
 import com.bca.banking.dto.LoginRequest;
-import com.bca.banking.dto.LoginResponse;
+import com.bca.banking.dto.RefreshTokenRequest;
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.security.LoginThrottledException;
+import com.bca.banking.security.PasswordHashingRejectedException;
 import com.bca.banking.service.AuthService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/auth")
@@ -21,15 +28,47 @@ public class AuthController {
     private AuthService authService;
     
     @PostMapping("/login")
-    public ResponseEntity<?> login(@Valid @RequestBody LoginRequest request) {
+    public CompletableFuture<ResponseEntity<?>> login(@Valid @RequestBody LoginRequest request, HttpServletRequest httpRequest) {
         try {
-            LoginResponse response = authService.login(request);
-            return ResponseEntity.ok(response);
+            return authService.login(request, httpRequest.getRemoteAddr())
+                    .<ResponseEntity<?>>thenApply(ResponseEntity::ok)
+                    .exceptionally(this::loginFailed);
         } catch (RuntimeException e) {
-            Map<String, String> error = new HashMap<>();
-            error.put("message", e.getMessage());
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(error);
+            return CompletableFuture.completedFuture(loginFailed(e));
         }
     }
+    
+    @PostMapping("/refresh")
+    public ResponseEntity<?> refresh(@Valid @RequestBody RefreshTokenRequest request) {
+        try {
+            return ResponseEntity.ok(authService.refresh(request.getRefreshToken()));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("message", e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/logout")
+    public ResponseEntity<?> logout(
+            @RequestBody(required = false) RefreshTokenRequest request,
+            BankingPrincipal principal) {
+        authService.logout(principal, request != null ? request.getRefreshToken() : null);
+        return ResponseEntity.ok(Map.of("message", "Logged out"));
+    }
+    
+    private ResponseEntity<?> loginFailed(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        Map<String, String> error = new HashMap<>();
+        error.put("message", cause.getMessage());
+        if (cause instanceof LoginThrottledException throttled) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(throttled.getRetryAfterSeconds()))
+                    .body(error);
+        }
+        if (cause instanceof PasswordHashingRejectedException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(error);
+        }
+        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(error);
+    }
 }
-
@@ -1,18 +1,18 @@
 package com.bca.banking.controller;
 
 import com.bca.banking.dto.BillPaymentRequest;
+import com.bca.banking.dto.PayeeView;
 import com.bca.banking.model.Payee;
+import com.bca.banking.security.BankingPrincipal;
 import com.bca.banking.service.BillPaymentService;
-import com.bca.banking.util.JwtUtil;
+import com.bca.banking.service.IdempotencyService;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/bill-payments")
@@ -23,37 +23,20 @@ public class BillPaymentController {
     private BillPaymentService billPaymentService;
     
     @Autowired
-    private JwtUtil jwtUtil;
-    
-    private Long getUserIdFromToken(String token) {
-        if (token != null && token.startsWith("Bearer ")) {
-            token = token.substring(7);
-            return jwtUtil.extractUserId(token);
-        }
-        return null;
-    }
+    private IdempotencyService idempotencyService;
     
     @GetMapping("/payees")
-    public ResponseEntity<?> getPayees(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+    public ResponseEntity<?> getPayees(BankingPrincipal principal) {
         try {
-            Long userId = getUserIdFromToken(authHeader);
-            if (userId == null) {
+            if (principal == null) {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
             
-            List<Payee> payees = billPaymentService.getPayeesByUserId(userId);
-            List<Map<String, Object>> payeeList = payees.stream()
-                    .map(payee -> {
-                        Map<String, Object> payeeMap = new HashMap<>();
-                        payeeMap.put("id", payee.getId());
-                        payeeMap.put("name", payee.getName());
-                        payeeMap.put("accountNumber", payee.getAccountNumber());
-                        payeeMap.put("category", payee.getCategory());
-                        return payeeMap;
-                    })
-                    .collect(Collectors.toList());
+            List<PayeeView> payees = billPaymentService.getPayeesByUserId(principal.userId()).stream()
+                    .map(PayeeView::from)
+                    .toList();
             
-            return ResponseEntity.ok(payeeList);
+            return ResponseEntity.ok(payees);
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("message", "Error fetching payees"));
         }
@@ -62,13 +45,18 @@ public class BillPaymentController {
     @PostMapping
     public ResponseEntity<?> processBillPayment(
             @Valid @RequestBody BillPaymentRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            BankingPrincipal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+        }
+        // Retries carrying the same Idempotency-Key get the original response instead of moving money again
+        return idempotencyService.execute(principal.userId(), idempotencyKey, "bill-payment", request,
+                () -> processBillPayment(request, principal.userId()));
+    }
+    
+    private ResponseEntity<?> processBillPayment(BillPaymentRequest request, Long userId) {
         try {
-            Long userId = getUserIdFromToken(authHeader);
-            if (userId == null) {
-                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
-            }
-            
             boolean success = billPaymentService.processBillPayment(
                     request.getAccountId(),
                     request.getPayeeId(),
@@ -90,27 +78,21 @@ public class BillPaymentController {
     @PostMapping("/payees")
     public ResponseEntity<?> addPayee(
             @Valid @RequestBody com.bca.banking.dto.PayeeRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            BankingPrincipal principal) {
         try {
-            Long userId = getUserIdFromToken(authHeader);
-            if (userId == null) {
+            if (principal == null) {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
             
-            com.bca.banking.model.Payee payee = billPaymentService.addPayee(
+            Payee payee = billPaymentService.addPayee(
                     request.getName(),
                     request.getAccountNumber(),
                     request.getCategory(),
-                    userId
+                    principal.userId()
             );
             
             if (payee != null) {
-                Map<String, Object> payeeMap = new HashMap<>();
-                payeeMap.put("id", payee.getId());
-                payeeMap.put("name", payee.getName());
-                payeeMap.put("accountNumber", payee.getAccountNumber());
-                payeeMap.put("category", payee.getCategory());
-                return ResponseEntity.ok(payeeMap);
+                return ResponseEntity.ok(PayeeView.from(payee));
             } else {
                 return ResponseEntity.status(400).body(Map.of("message", "Failed to add payee"));
             }
@@ -122,14 +104,13 @@ public class BillPaymentController {
     @DeleteMapping("/payees/{payeeId}")
     public ResponseEntity<?> deletePayee(
             @PathVariable Long payeeId,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            BankingPrincipal principal) {
         try {
-            Long userId = getUserIdFromToken(authHeader);
-            if (userId == null) {
+            if (principal == null) {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
             
-            boolean success = billPaymentService.deletePayee(payeeId, userId);
+            boolean success = billPaymentService.deletePayee(payeeId, principal.userId());
             
             if (success) {
                 return ResponseEntity.ok(Map.of("message", "Payee deleted successfully"));
@@ -0,0 +1,40 @@
+package com.bca.banking.controller;
+
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.service.DashboardService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// The home screen in one round trip: profile, accounts with balances, the latest transactions across all accounts
+// and payees. Sections that could not be loaded in time are listed in "unavailable" and left out of the response.
+@RestController
+@RequestMapping("/api/dashboard")
+@CrossOrigin(origins = "*")
+public class DashboardController {
+    
+    private static final int DEFAULT_TRANSACTIONS = 10;
+    private static final int MAX_TRANSACTIONS = 50;
+    
+    @Autowired
+    private DashboardService dashboardService;
+    
+    @GetMapping
+    public CompletableFuture<ResponseEntity<?>> getDashboard(
+            @RequestParam(required = false) Integer transactions,
+            BankingPrincipal principal) {
+        if (principal == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(401).body(Map.of("message", "Unauthorized")));
+        }
+        if (transactions != null && (transactions < 1 || transactions > MAX_TRANSACTIONS)) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(400)
+                    .body(Map.of("message", "Transactions must be between 1 and " + MAX_TRANSACTIONS)));
+        }
+        return dashboardService.load(principal.userId(), transactions != null ? transactions : DEFAULT_TRANSACTIONS)
+                .<ResponseEntity<?>>thenApply(ResponseEntity::ok)
+                .exceptionally(e -> ResponseEntity.status(500).body(Map.of("message", "Error loading dashboard")));
+    }
+}
@@ -0,0 +1,34 @@
+package com.bca.banking.controller;
+
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.service.EventStreamService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+// Push channel for the mobile client: a text/event-stream of "transaction-posted" and "balance-changed" events for
+// the signed-in user, so balances no longer need polling. A "resync" event means events were dropped and the
+// client should catch up through /api/sync.
+@RestController
+@RequestMapping("/api/events")
+@CrossOrigin(origins = "*")
+public class EventStreamController {
+    
+    @Autowired
+    private EventStreamService eventStreamService;
+    
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> events(BankingPrincipal principal) {
+        if (principal == null) {
+            // The body must stay an emitter for MVC to stream it, so there is no message here
+            return ResponseEntity.status(401).build();
+        }
+        return ResponseEntity.ok()
+                .header("Cache-Control", "no-cache")
+                // Stops nginx-style proxies from buffering the stream
+                .header("X-Accel-Buffering", "no")
+                .body(eventStreamService.subscribe(principal));
+    }
+}
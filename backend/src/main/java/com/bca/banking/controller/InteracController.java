@@ -2,8 +2,9 @@ package com.bca.banking.controller;
 
 import com.bca.banking.dto.InteracRequestRequest;
 import com.bca.banking.dto.InteracSendRequest;
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.service.IdempotencyService;
 import com.bca.banking.service.InteracService;
-import com.bca.banking.util.JwtUtil;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -20,26 +21,23 @@ public class InteracController {
     private InteracService interacService;
     
     @Autowired
-    private JwtUtil jwtUtil;
-    
-    private Long getUserIdFromToken(String token) {
-        if (token != null && token.startsWith("Bearer ")) {
-            token = token.substring(7);
-            return jwtUtil.extractUserId(token);
-        }
-        return null;
-    }
+    private IdempotencyService idempotencyService;
     
     @PostMapping("/send")
     public ResponseEntity<?> sendMoney(
             @Valid @RequestBody InteracSendRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            BankingPrincipal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+        }
+        // Retries carrying the same Idempotency-Key get the original response instead of moving money again
+        return idempotencyService.execute(principal.userId(), idempotencyKey, "interac-send", request,
+                () -> sendMoney(request, principal.userId()));
+    }
+    
+    private ResponseEntity<?> sendMoney(InteracSendRequest request, Long userId) {
         try {
-            Long userId = getUserIdFromToken(authHeader);
-            if (userId == null) {
-                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
-            }
-            
             boolean success = interacService.sendMoney(
                     request.getAccountId(),
                     request.getRecipientEmail(),
@@ -61,10 +59,9 @@ public class InteracController {
     @PostMapping("/request")
     public ResponseEntity<?> requestMoney(
             @Valid @RequestBody InteracRequestRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            BankingPrincipal principal) {
         try {
-            Long userId = getUserIdFromToken(authHeader);
-            if (userId == null) {
+            if (principal == null) {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
             
@@ -73,7 +70,7 @@ public class InteracController {
                     request.getRequestorEmail(),
                     request.getAmount(),
                     request.getMessage(),
-                    userId
+                    principal.userId()
             );
             
             if (success) {
@@ -0,0 +1,73 @@
+package com.bca.banking.controller;
+
+import com.bca.banking.dto.AccountView;
+import com.bca.banking.dto.PayeeView;
+import com.bca.banking.dto.SyncBatch;
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.service.SyncService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Delta sync for the mobile client. Without "since" the response is the user's full state; with it, only the
+// accounts, transactions and payees created or changed after that cursor, plus ids of payees deleted since.
+// Clients store "cursor" and call again straight away while "hasMore" is true.
+@RestController
+@RequestMapping("/api/sync")
+@CrossOrigin(origins = "*")
+public class SyncController {
+    
+    private static final int DEFAULT_LIMIT = 500;
+    private static final int MAX_LIMIT = 2000;
+    
+    @Autowired
+    private SyncService syncService;
+    
+    @GetMapping
+    public ResponseEntity<?> sync(
+            @RequestParam(required = false) String since,
+            @RequestParam(required = false) Integer limit,
+            BankingPrincipal principal) {
+        try {
+            if (principal == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+            if (limit != null && (limit < 1 || limit > MAX_LIMIT)) {
+                return ResponseEntity.status(400).body(Map.of("message", "Limit must be between 1 and " + MAX_LIMIT));
+            }
+            SyncBatch batch;
+            if (since == null) {
+                batch = syncService.snapshot(principal.userId());
+            } else {
+                long cursor;
+                try {
+                    cursor = Long.parseLong(since);
+                } catch (NumberFormatException e) {
+                    return ResponseEntity.status(400).body(Map.of("message", "Invalid cursor"));
+                }
+                batch = syncService.changesSince(principal.userId(), cursor, limit != null ? limit : DEFAULT_LIMIT);
+            }
+            return ResponseEntity.ok(toMap(batch));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(Map.of("message", "Error syncing"));
+        }
+    }
+    
+    private Map<String, Object> toMap(SyncBatch batch) {
+        List<AccountView> accounts = batch.accounts().stream().map(AccountView::from).toList();
+        List<PayeeView> payees = batch.payees().stream().map(PayeeView::from).toList();
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("cursor", Long.toString(batch.cursor()));
+        response.put("hasMore", batch.hasMore());
+        response.put("accounts", accounts);
+        response.put("transactions", batch.transactions());
+        response.put("payees", payees);
+        response.put("deleted", Map.of("payees", batch.deletedPayeeIds()));
+        return response;
+    }
+}
@@ -1,78 +1,127 @@
 package com.bca.banking.controller;
 
-import com.bca.banking.model.Transaction;
+import com.bca.banking.dto.TransactionPage;
+import com.bca.banking.security.BankingPrincipal;
 import com.bca.banking.service.AccountService;
+import com.bca.banking.service.ResourceVersionService;
 import com.bca.banking.service.TransactionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.HashMap;
-import java.util.List;
+import java.time.LocalDateTime;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/accounts/{accountId}/transactions")
 @CrossOrigin(origins = "*")
 public class TransactionController {
     
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    
     @Autowired
     private TransactionService transactionService;
     
     @Autowired
     private AccountService accountService;
     
-    private Long getUserIdFromAuthentication() {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        if (authentication != null && authentication.getDetails() instanceof Map) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> details = (Map<String, Object>) authentication.getDetails();
-            Object userIdObj = details.get("userId");
-            if (userIdObj instanceof Long) {
-                return (Long) userIdObj;
-            } else if (userIdObj instanceof Number) {
-                return ((Number) userIdObj).longValue();
-            }
-        }
-        return null;
-    }
+    @Autowired
+    private ObjectMapper objectMapper;
     
+    @Autowired
+    private ResourceVersionService resourceVersionService;
+    
+    // Without paging parameters the whole history is returned as a plain list (what the mobile app expects).
+    // With limit, cursor, from, to or type the response is {"items": [...], "next": cursor-or-null}.
     @GetMapping
-    public ResponseEntity<?> getTransactions(@PathVariable Long accountId) {
+    public ResponseEntity<?> getTransactions(
+            @PathVariable Long accountId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String type,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            BankingPrincipal principal) {
         try {
-            Long userId = getUserIdFromAuthentication();
-            if (userId == null) {
+            if (principal == null) {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
+            // Any page of the history changes only when the account's version does
+            String etag = resourceVersionService.accountEtag(accountId);
+            if (ResourceVersionService.matches(ifNoneMatch, etag)
+                    && principal.userId().equals(accountService.getCachedOwnerId(accountId))) {
+                return ResourceVersionService.notModified(etag);
+            }
+            if (limit != null && (limit < 1 || limit > MAX_PAGE_SIZE)) {
+                return ResponseEntity.status(400).body(Map.of("message", "Limit must be between 1 and " + MAX_PAGE_SIZE));
+            }
+            boolean paged = limit != null || cursor != null || from != null || to != null || type != null;
             
-            return accountService.getAccountById(accountId)
-                    .map(account -> {
-                        if (!account.getUser().getId().equals(userId)) {
+            return accountService.getOwnerId(accountId)
+                    .map(ownerId -> {
+                        if (!ownerId.equals(principal.userId())) {
                             return ResponseEntity.status(403).body(Map.of("message", "Forbidden"));
                         }
                         
-                        List<Transaction> transactions = transactionService.getTransactionsByAccountId(accountId);
-                        List<Map<String, Object>> transactionList = transactions.stream()
-                                .map(transaction -> {
-                                    Map<String, Object> transactionMap = new HashMap<>();
-                                    transactionMap.put("id", transaction.getId());
-                                    transactionMap.put("type", transaction.getType());
-                                    transactionMap.put("amount", transaction.getAmount());
-                                    transactionMap.put("description", transaction.getDescription());
-                                    transactionMap.put("date", transaction.getDate().toString());
-                                    return transactionMap;
-                                })
-                                .collect(Collectors.toList());
+                        if (!paged) {
+                            return ResponseEntity.ok().eTag(etag).cacheControl(ResourceVersionService.CACHE_CONTROL)
+                                    .body(transactionService.getTransactionsByAccountId(accountId));
+                        }
                         
-                        return ResponseEntity.ok(transactionList);
+                        TransactionPage page = transactionService.getTransactionPage(accountId, cursor,
+                                limit != null ? limit : DEFAULT_PAGE_SIZE, from, to, type);
+                        return ResponseEntity.ok().eTag(etag).cacheControl(ResourceVersionService.CACHE_CONTROL).body(page);
                     })
                     .orElse(ResponseEntity.status(404).body(Map.of("message", "Account not found")));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(400).body(Map.of("message", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("message", "Error fetching transactions"));
         }
     }
+    
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(
+            @PathVariable Long accountId,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            BankingPrincipal principal) {
+        if (principal == null) {
+            return message(401, "Unauthorized");
+        }
+        if (!"csv".equals(format) && !"ndjson".equals(format)) {
+            return message(400, "Format must be csv or ndjson");
+        }
+        
+        return accountService.getOwnerId(accountId)
+                .map(ownerId -> {
+                    if (!ownerId.equals(principal.userId())) {
+                        return message(403, "Forbidden");
+                    }
+                    // Written on an async thread after this method returns; the service opens its own transaction
+                    StreamingResponseBody body = out -> transactionService.exportTransactions(accountId, from, to, format, out);
+                    MediaType contentType = MediaType.parseMediaType("csv".equals(format) ? "text/csv" : "application/x-ndjson");
+                    return ResponseEntity.ok()
+                            .contentType(contentType)
+                            .header(HttpHeaders.CONTENT_DISPOSITION,
+                                    "attachment; filename=\"account-" + accountId + "-transactions." + format + "\"")
+                            .body(body);
+                })
+                .orElseGet(() -> message(404, "Account not found"));
+    }
+    
+    // Streaming endpoints must declare a StreamingResponseBody, so their error bodies are written the same way
+    private ResponseEntity<StreamingResponseBody> message(int status, String message) {
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> objectMapper.writeValue(out, Map.of("message", message)));
+    }
 }
-
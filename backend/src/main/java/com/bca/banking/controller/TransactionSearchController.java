@@ -0,0 +1,54 @@
+package com.bca.banking.controller;
+
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.service.TransactionSearchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+// Searches across all of the caller's accounts, e.g. ?q=hydro or ?minAmount=200&from=2024-05-01T00:00:00
+@RestController
+@RequestMapping("/api/transactions/search")
+@CrossOrigin(origins = "*")
+public class TransactionSearchController {
+    
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 200;
+    
+    @Autowired
+    private TransactionSearchService transactionSearchService;
+    
+    @GetMapping
+    public ResponseEntity<?> search(
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) Long accountId,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) BigDecimal minAmount,
+            @RequestParam(required = false) BigDecimal maxAmount,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Integer limit,
+            BankingPrincipal principal) {
+        try {
+            if (principal == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+            if (limit != null && (limit < 1 || limit > MAX_LIMIT)) {
+                return ResponseEntity.status(400).body(Map.of("message", "Limit must be between 1 and " + MAX_LIMIT));
+            }
+            if (minAmount != null && maxAmount != null && minAmount.compareTo(maxAmount) > 0) {
+                return ResponseEntity.status(400).body(Map.of("message", "minAmount must not exceed maxAmount"));
+            }
+            
+            return ResponseEntity.ok(Map.of("items", transactionSearchService.search(principal.userId(), q, accountId,
+                    type, minAmount, maxAmount, from, to, limit != null ? limit : DEFAULT_LIMIT)));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(Map.of("message", "Error searching transactions"));
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package com.bca.banking.controller;
 
+import com.bca.banking.dto.BatchTransferRequest;
+import com.bca.banking.dto.BatchTransferResult;
 import com.bca.banking.dto.TransferRequest;
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.service.IdempotencyService;
 import com.bca.banking.service.TransferService;
-import com.bca.banking.util.JwtUtil;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -19,26 +24,23 @@ public class TransferController {
     private TransferService transferService;
     
     @Autowired
-    private JwtUtil jwtUtil;
-    
-    private Long getUserIdFromToken(String token) {
-        if (token != null && token.startsWith("Bearer ")) {
-            token = token.substring(7);
-            return jwtUtil.extractUserId(token);
-        }
-        return null;
-    }
+    private IdempotencyService idempotencyService;
     
     @PostMapping
     public ResponseEntity<?> transfer(
             @Valid @RequestBody TransferRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            BankingPrincipal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+        }
+        // Retries carrying the same Idempotency-Key get the original response instead of moving money again
+        return idempotencyService.execute(principal.userId(), idempotencyKey, "transfer", request,
+                () -> transfer(request, principal.userId()));
+    }
+    
+    private ResponseEntity<?> transfer(TransferRequest request, Long userId) {
         try {
-            Long userId = getUserIdFromToken(authHeader);
-            if (userId == null) {
-                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
-            }
-            
             boolean success = transferService.transfer(
                     request.getFromAccountId(),
                     request.getToAccountId(),
@@ -52,9 +54,48 @@ public class TransferController {
             } else {
                 return ResponseEntity.status(400).body(Map.of("message", "Transfer failed. Check account balances and ownership."));
             }
+        } catch (PessimisticLockingFailureException e) {
+            // Retried, or answered with 503, by IdempotencyService
+            throw e;
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("message", "Error processing transfer: " + e.getMessage()));
         }
     }
+    
+    @PostMapping("/batch")
+    public ResponseEntity<?> transferBatch(
+            @Valid @RequestBody BatchTransferRequest request,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            BankingPrincipal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+        }
+        return idempotencyService.execute(principal.userId(), idempotencyKey, "transfer-batch", request,
+                () -> transferBatch(request, principal.userId()));
+    }
+    
+    private ResponseEntity<?> transferBatch(BatchTransferRequest request, Long userId) {
+        try {
+            boolean atomic = !"PER_ITEM".equals(request.getMode());
+            List<BatchTransferResult> results = transferService.transferBatch(request.getTransfers(), atomic, userId);
+            long completed = results.stream().filter(r -> "COMPLETED".equals(r.getStatus())).count();
+            long failed = results.stream().filter(r -> "FAILED".equals(r.getStatus())).count();
+            
+            Map<String, Object> body = Map.of(
+                    "mode", atomic ? "ALL_OR_NOTHING" : "PER_ITEM",
+                    "completed", completed,
+                    "failed", failed,
+                    "results", results
+            );
+            if (atomic && failed > 0) {
+                return ResponseEntity.status(400).body(body);
+            }
+            return ResponseEntity.ok(body);
+        } catch (PessimisticLockingFailureException e) {
+            // Retried, or answered with 503, by IdempotencyService
+            throw e;
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(Map.of("message", "Error processing batch transfer: " + e.getMessage()));
+        }
+    }
 }
-
@@ -1,15 +1,20 @@
 package com.bca.banking.controller;
 
 import com.bca.banking.dto.ChangePasswordRequest;
+import com.bca.banking.dto.UserProfile;
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.security.PasswordHashingRejectedException;
+import com.bca.banking.service.AuthService;
 import com.bca.banking.service.UserService;
-import com.bca.banking.util.JwtUtil;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/user")
@@ -20,34 +25,17 @@ public class UserController {
     private UserService userService;
     
     @Autowired
-    private JwtUtil jwtUtil;
-    
-    private Long getUserIdFromToken(String token) {
-        if (token != null && token.startsWith("Bearer ")) {
-            token = token.substring(7);
-            return jwtUtil.extractUserId(token);
-        }
-        return null;
-    }
+    private AuthService authService;
     
     @GetMapping("/profile")
-    public ResponseEntity<?> getProfile(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+    public ResponseEntity<?> getProfile(BankingPrincipal principal) {
         try {
-            Long userId = getUserIdFromToken(authHeader);
-            if (userId == null) {
+            if (principal == null) {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
             
-            return userService.getUserById(userId)
-                    .map(user -> {
-                        Map<String, Object> profile = new HashMap<>();
-                        profile.put("id", user.getId());
-                        profile.put("username", user.getUsername());
-                        profile.put("firstName", user.getFirstName());
-                        profile.put("lastName", user.getLastName());
-                        profile.put("email", user.getEmail());
-                        return ResponseEntity.ok(profile);
-                    })
+            return userService.getUserById(principal.userId())
+                    .<ResponseEntity<?>>map(user -> ResponseEntity.ok(UserProfile.from(user)))
                     .orElse(ResponseEntity.status(404).body(Map.of("message", "User not found")));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("message", "Error fetching profile"));
@@ -55,25 +43,35 @@ public class UserController {
     }
     
     @PostMapping("/change-password")
-    public ResponseEntity<?> changePassword(
+    public CompletableFuture<ResponseEntity<?>> changePassword(
             @Valid @RequestBody ChangePasswordRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            BankingPrincipal principal) {
+        if (principal == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(401).body(Map.of("message", "Unauthorized")));
+        }
         try {
-            Long userId = getUserIdFromToken(authHeader);
-            if (userId == null) {
-                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
-            }
-            
-            boolean success = userService.changePassword(userId, request.getCurrentPassword(), request.getNewPassword());
-            
-            if (success) {
-                return ResponseEntity.ok(Map.of("message", "Password changed successfully"));
-            } else {
-                return ResponseEntity.status(400).body(Map.of("message", "Password change failed. Check current password."));
-            }
+            return userService.changePassword(principal.userId(), request.getCurrentPassword(), request.getNewPassword())
+                    .<ResponseEntity<?>>thenApply(success -> {
+                        if (success) {
+                            // Older tokens were revoked; hand the caller a fresh pair so this session continues
+                            return ResponseEntity.ok(authService.issueTokens(principal.userId(), principal.username(), "Password changed successfully"));
+                        } else {
+                            return ResponseEntity.status(400).body(Map.of("message", "Password change failed. Check current password."));
+                        }
+                    })
+                    .exceptionally(this::changePasswordFailed);
         } catch (Exception e) {
-            return ResponseEntity.status(500).body(Map.of("message", "Error changing password: " + e.getMessage()));
+            return CompletableFuture.completedFuture(changePasswordFailed(e));
         }
     }
+    
+    private ResponseEntity<?> changePasswordFailed(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof PasswordHashingRejectedException) {
+            return ResponseEntity.status(503)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(Map.of("message", cause.getMessage()));
+        }
+        return ResponseEntity.status(500).body(Map.of("message", "Error changing password: " + cause.getMessage()));
+    }
 }
-
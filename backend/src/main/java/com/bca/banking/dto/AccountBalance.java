@@ -0,0 +1,6 @@
+package com.bca.banking.dto;
+
+import java.math.BigDecimal;
+
+public record AccountBalance(BigDecimal balance, String accountNumber) {
+}
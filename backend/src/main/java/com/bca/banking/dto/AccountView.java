@@ -0,0 +1,14 @@
+package com.bca.banking.dto;
+
+import com.bca.banking.model.Account;
+
+import java.math.BigDecimal;
+
+// Response shape of an account in lists; serialized field by field instead of through a per-row map
+public record AccountView(Long id, String accountNumber, String accountType, BigDecimal balance, String description) {
+    
+    public static AccountView from(Account account) {
+        return new AccountView(account.getId(), account.getAccountNumber(), account.getAccountType(),
+                account.getBalance(), account.getDescription());
+    }
+}
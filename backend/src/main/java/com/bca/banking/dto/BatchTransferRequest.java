@@ -0,0 +1,19 @@
+package com.bca.banking.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+import java.util.List;
+
+@Data
+public class BatchTransferRequest {
+    // ALL_OR_NOTHING: any failing leg rejects the whole batch; PER_ITEM: valid legs are applied, failing ones reported
+    @Pattern(regexp = "ALL_OR_NOTHING|PER_ITEM", message = "Mode must be ALL_OR_NOTHING or PER_ITEM")
+    private String mode = "ALL_OR_NOTHING";
+    
+    @NotEmpty(message = "At least one transfer is required")
+    @Size(max = 1000, message = "A batch may contain at most 1000 transfers")
+    private List<@Valid TransferRequest> transfers;
+}
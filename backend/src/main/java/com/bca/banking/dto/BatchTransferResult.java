@@ -0,0 +1,12 @@
+package com.bca.banking.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BatchTransferResult {
+    private int index;
+    private String status; // COMPLETED, FAILED, NOT_APPLIED
+    private String message;
+}
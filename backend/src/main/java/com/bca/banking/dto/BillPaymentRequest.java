@@ -1,7 +1,9 @@
 package com.bca.banking.dto;
 
+import jakarta.validation.constraints.Digits;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
 import lombok.Data;
 import java.math.BigDecimal;
 
@@ -15,8 +17,10 @@ public class BillPaymentRequest {
     
     @NotNull(message = "Amount is required")
     @Positive(message = "Amount must be positive")
+    @Digits(integer = 17, fraction = 2, message = "Amount must have at most 2 decimal places")
     private BigDecimal amount;
     
+    @Size(max = 255, message = "Memo must be at most 255 characters")
     private String memo;
 }
 
@@ -0,0 +1,13 @@
+package com.bca.banking.dto;
+
+import com.bca.banking.event.PostedTransaction;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+// Everything the home screen shows, in one response. A section that failed or ran past its timeout is left out
+// and named in "unavailable", so the client can show the rest and fetch that part on its own.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record Dashboard(UserProfile profile, List<AccountView> accounts, List<PostedTransaction> recentTransactions,
+                        List<PayeeView> payees, List<String> unavailable) {
+}
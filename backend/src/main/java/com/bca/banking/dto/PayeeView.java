@@ -0,0 +1,11 @@
+package com.bca.banking.dto;
+
+import com.bca.banking.model.Payee;
+
+// Response shape of a payee; the owning user is never part of it
+public record PayeeView(Long id, String name, String accountNumber, String category) {
+    
+    public static PayeeView from(Payee payee) {
+        return new PayeeView(payee.getId(), payee.getName(), payee.getAccountNumber(), payee.getCategory());
+    }
+}
@@ -0,0 +1,7 @@
+package com.bca.banking.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+public record RollupTotal(LocalDate periodStart, String type, BigDecimal total, Long transactionCount) {
+}
@@ -0,0 +1,10 @@
+package com.bca.banking.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Map;
+
+// One day or month of an account's activity: money in, money out, and the total per transaction type
+public record SpendingPeriod(LocalDate period, BigDecimal income, BigDecimal spending, long transactionCount,
+                             Map<String, BigDecimal> byType) {
+}
@@ -0,0 +1,14 @@
+package com.bca.banking.dto;
+
+import java.math.BigDecimal;
+
+// Everything a statement needs from the accounts table, read in one statement so the balance and the
+// movements since the period start are consistent with each other
+public record StatementAccount(Long id, String accountNumber, String accountType, BigDecimal balance,
+                               BigDecimal slotBalance, BigDecimal movedSince) {
+    
+    // Balance at the start of the period: today's balance with everything posted since then taken back out
+    public BigDecimal openingBalance() {
+        return balance.add(slotBalance).subtract(movedSince);
+    }
+}
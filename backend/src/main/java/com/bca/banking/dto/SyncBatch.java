@@ -0,0 +1,12 @@
+package com.bca.banking.dto;
+
+import com.bca.banking.event.PostedTransaction;
+import com.bca.banking.model.Account;
+import com.bca.banking.model.Payee;
+
+import java.util.List;
+
+// Current state of everything that changed after a cursor, plus the cursor to send next time
+public record SyncBatch(long cursor, boolean hasMore, List<Account> accounts, List<PostedTransaction> transactions,
+                        List<Payee> payees, List<Long> deletedPayeeIds) {
+}
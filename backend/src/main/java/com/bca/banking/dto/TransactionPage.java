@@ -0,0 +1,13 @@
+package com.bca.banking.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class TransactionPage {
+    private List<TransactionSummary> items;
+    private String next; // opaque cursor for the following page, null on the last page
+}
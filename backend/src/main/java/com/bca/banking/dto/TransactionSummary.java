@@ -0,0 +1,8 @@
+package com.bca.banking.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Read model for transaction lists: selected column by column, never hydrated as a Transaction entity
+public record TransactionSummary(Long id, String type, BigDecimal amount, String description, LocalDateTime date) {
+}
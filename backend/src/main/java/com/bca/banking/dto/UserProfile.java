@@ -0,0 +1,10 @@
+package com.bca.banking.dto;
+
+import com.bca.banking.model.User;
+
+public record UserProfile(Long id, String username, String firstName, String lastName, String email) {
+    
+    public static UserProfile from(User user) {
+        return new UserProfile(user.getId(), user.getUsername(), user.getFirstName(), user.getLastName(), user.getEmail());
+    }
+}
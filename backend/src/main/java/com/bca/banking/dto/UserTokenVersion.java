@@ -0,0 +1,6 @@
+package com.bca.banking.dto;
+
+import java.time.Instant;
+
+public record UserTokenVersion(Long userId, Long version, Instant changedAt) {
+}
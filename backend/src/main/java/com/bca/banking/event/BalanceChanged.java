@@ -0,0 +1,7 @@
+package com.bca.banking.event;
+
+import java.math.BigDecimal;
+
+// An account's balance after a posting, including any hot-account slots
+public record BalanceChanged(Long accountId, BigDecimal balance) {
+}
@@ -0,0 +1,8 @@
+package com.bca.banking.event;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+public record PostedTransaction(Long id, Long accountId, String type, BigDecimal amount, String description,
+                                LocalDateTime date) {
+}
@@ -0,0 +1,6 @@
+package com.bca.banking.event;
+
+// Published by TokenRevocationService when tokens are revoked on this node: one token by id, or with a null
+// tokenId every token issued to the user so far
+public record TokensRevokedEvent(Long userId, String tokenId) {
+}
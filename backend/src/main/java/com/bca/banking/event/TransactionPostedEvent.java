@@ -0,0 +1,8 @@
+package com.bca.banking.event;
+
+import java.util.List;
+
+// Published by LedgerService for every ledger row it writes, inside the writing transaction.
+// Listeners that must only see committed rows use @TransactionalEventListener.
+public record TransactionPostedEvent(List<PostedTransaction> transactions) {
+}
@@ -0,0 +1,8 @@
+package com.bca.banking.ledger;
+
+import java.math.BigDecimal;
+
+// One applied money movement as written to the journal. Payments have no credit side (creditAccountId is null).
+public record JournalEntry(long sequence, long timestamp, Long debitAccountId, Long creditAccountId, BigDecimal amount,
+                           String debitDescription, String creditDescription) {
+}
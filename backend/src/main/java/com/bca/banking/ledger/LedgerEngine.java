@@ -0,0 +1,472 @@
+package com.bca.banking.ledger;
+
+import com.bca.banking.ledger.LedgerProjector.Watermark;
+import com.bca.banking.ledger.LedgerSnapshot.SnapshotAccount;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Optional single-writer ledger (banking.ledger.engine.enabled=true).
+// Request threads claim a slot in a pre-allocated ring buffer, fill it and wait on its future. One writer thread
+// drains published slots in order, applies them to in-memory balances, appends the resulting movements to the
+// journal with a single fsync per drained group, and only then completes the futures. The JPA tables are brought
+// up to date afterwards by LedgerProjector, so account reads may trail the engine by a few milliseconds.
+// While the engine is enabled every balance change must go through it. LedgerProjector snapshots the ledger
+// periodically and on shutdown; see recover() for startup.
+@Component
+@ConditionalOnProperty(name = "banking.ledger.engine.enabled", havingValue = "true")
+public class LedgerEngine {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LedgerEngine.class);
+    
+    public static final String NOT_APPLIED = "Batch rejected because another transfer failed";
+    
+    private static final int MAX_DESCRIPTION = 255;
+    
+    @Autowired
+    private LedgerProjector ledgerProjector;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${banking.ledger.engine.ring-size:8192}")
+    private int ringSize;
+    
+    @Value("${banking.ledger.engine.max-drain:1024}")
+    private int maxDrain;
+    
+    @Value("${banking.ledger.engine.journal-path:data/ledger.journal}")
+    private String journalPath;
+    
+    @Value("${banking.ledger.engine.fsync:true}")
+    private boolean fsync;
+    
+    private Slot[] ring;
+    private int mask;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private volatile long released = -1;
+    private volatile boolean running;
+    
+    // Balances are owned by the writer thread; request threads only check which accounts are known
+    private final Map<Long, AccountState> accounts = new ConcurrentHashMap<>();
+    // Owned by the writer thread
+    private LedgerJournal journal;
+    private long journalSequence;
+    private volatile Thread writer;
+    private Timer groupCommitTimer;
+    
+    // Before the other startup listeners: the rollup rebuild must read the recovered ledger rows
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() throws IOException {
+        int capacity = Integer.highestOneBit(Math.max(2, ringSize));
+        ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+        mask = capacity - 1;
+        
+        recover();
+        
+        Gauge.builder("ledger.engine.backlog", this, engine -> engine.claimed.get() - engine.released).register(meterRegistry);
+        groupCommitTimer = Timer.builder("ledger.engine.group.commit").register(meterRegistry);
+        
+        running = true;
+        writer = new Thread(this::runWriter, "ledger-writer");
+        writer.setDaemon(true);
+        writer.start();
+        logger.info("Ledger engine started with {} accounts, ring size {}, journal {} at sequence {}",
+                accounts.size(), capacity, journalPath, journalSequence);
+    }
+    
+    // The newest valid snapshot holds every account and ledger row as of its journal sequence S. If the tables are
+    // behind it (always so with an in-memory database) they are seeded from it. The engine's balances start from
+    // its accounts and only the journal records after S are read: each is applied to those balances, and the ones
+    // the tables have not seen are projected like any other group. Without a snapshot the tables are brought to the
+    // end of the journal and the balances taken from them. Accounts the snapshot does not know are taken from the
+    // tables; every other balance must match them, since a difference means the tables were changed outside the
+    // engine, and startup fails rather than trading on them.
+    private void recover() throws IOException {
+        long started = System.nanoTime();
+        Optional<LedgerSnapshot> snapshot = ledgerProjector.latestSnapshot();
+        Watermark projected = ledgerProjector.watermark();
+        if (snapshot.isPresent() && projected.sequence() < snapshot.get().sequence()) {
+            projected = ledgerProjector.restore(snapshot.get());
+        }
+        
+        Watermark replayFrom = snapshot.map(s -> new Watermark(s.sequence(), s.journalOffset())).orElse(projected);
+        List<JournalEntry> replayed = new ArrayList<>();
+        journal = new LedgerJournal(Path.of(journalPath), fsync, replayFrom.journalOffset(), replayFrom.sequence(), replayed::add);
+        journalSequence = journal.lastSequence();
+        long projectedSequence = projected.sequence();
+        List<JournalEntry> missing = replayed.stream().filter(entry -> entry.sequence() > projectedSequence).toList();
+        if (!missing.isEmpty()) {
+            ledgerProjector.apply(missing, journal.position());
+        }
+        
+        if (snapshot.isPresent()) {
+            for (SnapshotAccount account : snapshot.get().accounts().values()) {
+                accounts.put(account.id(), new AccountState(account.userId(), account.accountNumber(), account.balance()));
+            }
+            for (JournalEntry entry : replayed) {
+                // An account missing from the snapshot is read from the tables below, with the journal already in
+                AccountState debited = accounts.get(entry.debitAccountId());
+                if (debited != null) {
+                    debited.balance = debited.balance.subtract(entry.amount());
+                }
+                AccountState credited = entry.creditAccountId() != null ? accounts.get(entry.creditAccountId()) : null;
+                if (credited != null) {
+                    credited.balance = credited.balance.add(entry.amount());
+                }
+            }
+        }
+        Set<Long> unmatched = new HashSet<>(accounts.keySet());
+        ledgerProjector.readAccounts(account -> {
+            AccountState state = accounts.get(account.id());
+            if (state == null) {
+                accounts.put(account.id(), new AccountState(account.userId(), account.accountNumber(), account.balance()));
+            } else if (state.balance.compareTo(account.balance()) != 0) {
+                throw new IllegalStateException("Account " + account.id() + " is at " + account.balance() + " in the database but at "
+                        + state.balance + " in ledger snapshot " + replayFrom.sequence() + " and the journal");
+            }
+            unmatched.remove(account.id());
+        });
+        if (!unmatched.isEmpty()) {
+            throw new IllegalStateException("Accounts " + unmatched + " in ledger snapshot " + replayFrom.sequence()
+                    + " do not exist in the database");
+        }
+        accounts.forEach((accountId, state) -> {
+            if (state.balance.signum() < 0) {
+                throw new IllegalStateException("Recovered ledger leaves account " + accountId + " negative: " + state.balance);
+            }
+        });
+        if (snapshot.isEmpty()) {
+            ledgerProjector.writeSnapshot();
+        }
+        logger.info("Ledger recovered at journal sequence {} in {} ms from {}; {} journal records read, {} projected",
+                journalSequence, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+                snapshot.isPresent() ? "snapshot " + replayFrom.sequence() : "the database", replayed.size(), missing.size());
+    }
+    
+    // Runs first when the context closes; the projector then projects what is still queued and writes the shutdown
+    // snapshot. Also run on destruction, for a context that failed to start.
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ContextClosedEvent.class)
+    @PreDestroy
+    public void stop() throws Exception {
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+    
+    // Applies the legs and returns one entry per leg: null if applied, otherwise the reason it was refused.
+    // With atomic=true either every leg is applied or none is. A leg without a destination is a payment.
+    public List<String> submit(Long userId, List<Leg> legs, boolean atomic) {
+        if (!running) {
+            throw new IllegalStateException("Ledger engine is not running");
+        }
+        // Movements the tables could not take would only pile up in the journal
+        if (ledgerProjector.failed()) {
+            throw new IllegalStateException("Ledger projection failed; no movements are accepted until a restart");
+        }
+        // A leg the tables would refuse must never be acknowledged: once journaled it fails projection for good
+        List<String> errors = new ArrayList<>(legs.size());
+        List<Leg> accepted = new ArrayList<>(legs.size());
+        for (Leg leg : legs) {
+            String error = checkShape(leg);
+            errors.add(error);
+            if (error == null) {
+                accepted.add(new Leg(leg.fromAccountId(), leg.toAccountId(), leg.amount().setScale(2), leg.description()));
+            }
+        }
+        if (accepted.size() == legs.size()) {
+            return enqueue(userId, accepted, atomic);
+        }
+        if (atomic || accepted.isEmpty()) {
+            errors.replaceAll(error -> error != null ? error : NOT_APPLIED);
+            return errors;
+        }
+        List<String> applied = enqueue(userId, accepted, false);
+        int next = 0;
+        for (int i = 0; i < errors.size(); i++) {
+            if (errors.get(i) == null) {
+                errors.set(i, applied.get(next++));
+            }
+        }
+        return errors;
+    }
+    
+    // What the ledger tables can store: amounts are NUMERIC(19,2) and descriptions varchar(255)
+    private static String checkShape(Leg leg) {
+        if (leg.amount() == null || leg.amount().signum() <= 0) {
+            return "Amount must be positive";
+        }
+        BigDecimal amount = leg.amount().stripTrailingZeros();
+        if (amount.scale() > 2 || amount.precision() - amount.scale() > 17) {
+            return "Amount must have at most 17 integer digits and 2 decimal places";
+        }
+        if (leg.description() != null && leg.description().length() > MAX_DESCRIPTION) {
+            return "Description must be at most " + MAX_DESCRIPTION + " characters";
+        }
+        return null;
+    }
+    
+    private List<String> enqueue(Long userId, List<Leg> legs, boolean atomic) {
+        Map<Long, AccountState> loaded = loadUnknown(legs);
+        long sequence = claimed.incrementAndGet();
+        // Wait for the writer to free the slot this sequence wraps onto
+        while (sequence - released > ring.length) {
+            if (!running) {
+                throw new IllegalStateException("Ledger engine is not running");
+            }
+            LockSupport.parkNanos(1_000);
+        }
+        Slot slot = ring[(int) (sequence & mask)];
+        CompletableFuture<List<String>> result = new CompletableFuture<>();
+        slot.userId = userId;
+        slot.legs = legs;
+        slot.atomic = atomic;
+        slot.loaded = loaded;
+        slot.result = result;
+        slot.sequence = sequence;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get(10, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // A slot published after the writer's last drain is never picked up. Once the writer has
+                    // exited nothing can apply it any more, so it is safe to report it as not applied.
+                    if (!running && !writer.isAlive()) {
+                        result.completeExceptionally(new IllegalStateException("Ledger engine stopped"));
+                    }
+                } catch (InterruptedException e) {
+                    // The legs may already be applied; keep waiting so the caller learns the outcome
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Ledger engine failed", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    // Accounts opened after startup are not in memory yet. They are read here, on the request thread, so the writer
+    // never waits on the database; it adopts them unless it has learned the account in the meantime. An account the
+    // engine has never seen has no journaled movements, so the tables hold its current balance.
+    private Map<Long, AccountState> loadUnknown(List<Leg> legs) {
+        Map<Long, AccountState> loaded = Map.of();
+        for (Leg leg : legs) {
+            for (Long accountId : new Long[]{leg.fromAccountId(), leg.toAccountId()}) {
+                if (accountId == null || accounts.containsKey(accountId) || loaded.containsKey(accountId)) {
+                    continue;
+                }
+                Optional<SnapshotAccount> account = ledgerProjector.readAccount(accountId);
+                if (account.isPresent()) {
+                    if (loaded.isEmpty()) {
+                        loaded = new HashMap<>();
+                    }
+                    loaded.put(accountId, new AccountState(account.get().userId(), account.get().accountNumber(),
+                            account.get().balance()));
+                }
+            }
+        }
+        return loaded;
+    }
+    
+    private void runWriter() {
+        long next = released + 1;
+        List<Slot> drained = new ArrayList<>(maxDrain);
+        List<List<String>> results = new ArrayList<>(maxDrain);
+        List<JournalEntry> entries = new ArrayList<>();
+        while (running) {
+            drained.clear();
+            while (drained.size() < maxDrain) {
+                Slot slot = ring[(int) (next & mask)];
+                if (slot.sequence != next) {
+                    break;
+                }
+                drained.add(slot);
+                next++;
+            }
+            if (drained.isEmpty()) {
+                LockSupport.parkNanos(20_000);
+                continue;
+            }
+            
+            results.clear();
+            entries.clear();
+            long now = System.currentTimeMillis();
+            for (Slot slot : drained) {
+                results.add(apply(slot, now, entries));
+            }
+            
+            long journalOffset;
+            try {
+                long start = System.nanoTime();
+                journal.append(entries);
+                journalOffset = journal.position();
+                groupCommitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } catch (IOException e) {
+                // The in-memory balances are now ahead of the journal; stop rather than acknowledge undurable movements
+                logger.error("Ledger journal write failed, stopping the engine", e);
+                running = false;
+                for (Slot slot : drained) {
+                    slot.result.completeExceptionally(e);
+                }
+                failPending(next);
+                return;
+            }
+            
+            for (int i = 0; i < drained.size(); i++) {
+                Slot slot = drained.get(i);
+                CompletableFuture<List<String>> result = slot.result;
+                slot.legs = null;
+                slot.loaded = null;
+                slot.result = null;
+                result.complete(results.get(i));
+            }
+            released = next - 1;
+            if (!entries.isEmpty()) {
+                ledgerProjector.project(List.copyOf(entries), journalOffset);
+            }
+        }
+        failPending(next);
+    }
+    
+    private List<String> apply(Slot slot, long now, List<JournalEntry> entries) {
+        slot.loaded.forEach(accounts::putIfAbsent);
+        List<String> errors = new ArrayList<>(slot.legs.size());
+        Map<Long, BigDecimal> pending = new HashMap<>();
+        boolean anyFailed = false;
+        for (Leg leg : slot.legs) {
+            String error = validate(leg, slot.userId, pending);
+            errors.add(error);
+            if (error != null) {
+                anyFailed = true;
+                continue;
+            }
+            pending.merge(leg.fromAccountId(), leg.amount().negate(), BigDecimal::add);
+            if (leg.toAccountId() != null) {
+                pending.merge(leg.toAccountId(), leg.amount(), BigDecimal::add);
+            }
+        }
+        if (slot.atomic && anyFailed) {
+            errors.replaceAll(error -> error != null ? error : NOT_APPLIED);
+            return errors;
+        }
+        
+        pending.forEach((accountId, delta) -> {
+            AccountState state = accounts.get(accountId);
+            state.balance = state.balance.add(delta);
+        });
+        for (int i = 0; i < slot.legs.size(); i++) {
+            if (errors.get(i) == null) {
+                entries.add(toEntry(slot.legs.get(i), now));
+            }
+        }
+        return errors;
+    }
+    
+    private String validate(Leg leg, Long userId, Map<Long, BigDecimal> pending) {
+        AccountState from = accounts.get(leg.fromAccountId());
+        if (from == null || (leg.toAccountId() != null && !accounts.containsKey(leg.toAccountId()))) {
+            return "Account not found";
+        }
+        if (leg.fromAccountId().equals(leg.toAccountId())) {
+            return "Source and destination accounts must differ";
+        }
+        if (!from.userId.equals(userId)) {
+            return "Source account does not belong to the user";
+        }
+        BigDecimal available = from.balance.add(pending.getOrDefault(leg.fromAccountId(), BigDecimal.ZERO));
+        if (available.compareTo(leg.amount()) < 0) {
+            return "Insufficient balance";
+        }
+        return null;
+    }
+    
+    private JournalEntry toEntry(Leg leg, long now) {
+        if (leg.toAccountId() == null) {
+            return new JournalEntry(++journalSequence, now, leg.fromAccountId(), null, leg.amount(), leg.description(), null);
+        }
+        String description = leg.description();
+        return new JournalEntry(++journalSequence, now, leg.fromAccountId(), leg.toAccountId(), leg.amount(),
+                description != null ? description : "Transfer to " + accounts.get(leg.toAccountId()).accountNumber,
+                description != null ? description : "Transfer from " + accounts.get(leg.fromAccountId()).accountNumber);
+    }
+    
+    private void failPending(long next) {
+        IllegalStateException stopped = new IllegalStateException("Ledger engine stopped");
+        while (true) {
+            Slot slot = ring[(int) (next & mask)];
+            if (slot.sequence != next || slot.result == null) {
+                return;
+            }
+            slot.result.completeExceptionally(stopped);
+            next++;
+        }
+    }
+    
+    public record Leg(Long fromAccountId, Long toAccountId, BigDecimal amount, String description) {
+    }
+    
+    private static final class AccountState {
+        private final Long userId;
+        private final String accountNumber;
+        private BigDecimal balance;
+        
+        private AccountState(Long userId, String accountNumber, BigDecimal balance) {
+            this.userId = userId;
+            this.accountNumber = accountNumber;
+            this.balance = balance;
+        }
+    }
+    
+    // Pre-allocated and reused; the volatile sequence write publishes the other fields to the writer
+    private static final class Slot {
+        private Long userId;
+        private List<Leg> legs;
+        private boolean atomic;
+        private Map<Long, AccountState> loaded;
+        private CompletableFuture<List<String>> result;
+        private volatile long sequence = -1;
+    }
+}
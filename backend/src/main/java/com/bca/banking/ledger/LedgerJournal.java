@@ -0,0 +1,180 @@
+package com.bca.banking.ledger;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Append-only binary log of applied movements. Each record is [int length][payload][int crc32 of payload].
+// Records are appended in groups and forced to disk once per group (group commit). A torn record at the tail,
+// left by a crash mid-write, is detected by its length or checksum and cut off when the journal is opened.
+// Not thread-safe: only the ledger engine's writer thread appends.
+public class LedgerJournal implements AutoCloseable {
+    
+    private static final int MAX_RECORD = 64 * 1024;
+    
+    private final FileChannel channel;
+    private final boolean fsync;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+    private long lastSequence;
+    
+    // Opens the journal for appending after handing every intact record from the given offset to replay.
+    // fromSequence is the sequence of the last record before that offset (0 for the start of the file).
+    public LedgerJournal(Path path, boolean fsync, long fromOffset, long fromSequence, Consumer<JournalEntry> replay)
+            throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.fsync = fsync;
+        if (fromOffset > channel.size()) {
+            channel.close();
+            throw new IOException("Journal " + path + " is shorter than the snapshot offset " + fromOffset);
+        }
+        this.lastSequence = fromSequence;
+        long validEnd = scan(fromOffset, entry -> {
+            if (entry.sequence() != lastSequence + 1) {
+                throw new IllegalStateException("Journal sequence gap: expected " + (lastSequence + 1) + " but found " + entry.sequence());
+            }
+            lastSequence = entry.sequence();
+            replay.accept(entry);
+        });
+        if (validEnd < channel.size()) {
+            channel.truncate(validEnd);
+        }
+        channel.position(validEnd);
+    }
+    
+    public long lastSequence() {
+        return lastSequence;
+    }
+    
+    // File offset just past the last appended record
+    public long position() throws IOException {
+        return channel.position();
+    }
+    
+    // Writes nothing unless every record fits: scan() reads a longer one as a torn tail and would cut it and
+    // everything after it off on the next open
+    public void append(List<JournalEntry> entries) throws IOException {
+        byte[][] payloads = new byte[entries.size()][];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = encode(entries.get(i));
+            if (payloads[i].length > MAX_RECORD) {
+                throw new IOException("Journal record " + entries.get(i).sequence() + " is " + payloads[i].length
+                        + " bytes, over the " + MAX_RECORD + " byte limit");
+            }
+        }
+        buffer.clear();
+        for (int i = 0; i < payloads.length; i++) {
+            byte[] payload = payloads[i];
+            if (buffer.remaining() < payload.length + 8) {
+                flushBuffer();
+                if (buffer.capacity() < payload.length + 8) {
+                    buffer = ByteBuffer.allocateDirect(payload.length + 8);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            buffer.putInt(payload.length).put(payload).putInt((int) crc.getValue());
+            lastSequence = entries.get(i).sequence();
+        }
+        flushBuffer();
+        if (fsync) {
+            channel.force(false);
+        }
+    }
+    
+    // Reads every intact record from the given file offset; returns the offset just past the last one
+    public long scan(long from, Consumer<JournalEntry> consumer) throws IOException {
+        long position = from;
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (true) {
+            header.clear();
+            if (channel.read(header, position) < 4) {
+                return position;
+            }
+            int length = header.flip().getInt();
+            if (length <= 0 || length > MAX_RECORD) {
+                return position;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length + 4);
+            if (channel.read(record, position + 4) < length + 4) {
+                return position;
+            }
+            record.flip();
+            byte[] payload = new byte[length];
+            record.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (record.getInt() != (int) crc.getValue()) {
+                return position;
+            }
+            consumer.accept(decode(ByteBuffer.wrap(payload)));
+            position += length + 8;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    private static byte[] encode(JournalEntry entry) {
+        byte[] unscaled = entry.amount().unscaledValue().toByteArray();
+        byte[] debitDescription = utf8(entry.debitDescription());
+        byte[] creditDescription = utf8(entry.creditDescription());
+        ByteBuffer out = ByteBuffer.allocate(8 * 4 + 4 + 4 + unscaled.length + 4 + debitDescription.length + 4 + creditDescription.length);
+        out.putLong(entry.sequence())
+                .putLong(entry.timestamp())
+                .putLong(entry.debitAccountId() != null ? entry.debitAccountId() : 0L)
+                .putLong(entry.creditAccountId() != null ? entry.creditAccountId() : 0L)
+                .putInt(entry.amount().scale())
+                .putInt(unscaled.length).put(unscaled)
+                .putInt(debitDescription.length).put(debitDescription)
+                .putInt(creditDescription.length).put(creditDescription);
+        return out.array();
+    }
+    
+    private static JournalEntry decode(ByteBuffer in) {
+        long sequence = in.getLong();
+        long timestamp = in.getLong();
+        long debitAccountId = in.getLong();
+        long creditAccountId = in.getLong();
+        int scale = in.getInt();
+        byte[] unscaled = new byte[in.getInt()];
+        in.get(unscaled);
+        return new JournalEntry(sequence, timestamp,
+                debitAccountId != 0 ? debitAccountId : null,
+                creditAccountId != 0 ? creditAccountId : null,
+                new BigDecimal(new BigInteger(unscaled), scale),
+                readUtf8(in),
+                readUtf8(in));
+    }
+    
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+    
+    private static String readUtf8(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes.length > 0 ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+}
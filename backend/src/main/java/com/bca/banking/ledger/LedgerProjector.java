@@ -0,0 +1,439 @@
+package com.bca.banking.ledger;
+
+import com.bca.banking.ledger.LedgerSnapshot.SnapshotAccount;
+import com.bca.banking.ledger.LedgerSnapshot.SnapshotTransaction;
+import com.bca.banking.ledger.LedgerSnapshot.SnapshotUser;
+import com.bca.banking.model.Account;
+import com.bca.banking.model.Transaction;
+import com.bca.banking.model.User;
+import com.bca.banking.service.AccountService;
+import com.bca.banking.service.HotAccountService;
+import com.bca.banking.service.LedgerService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Applies journaled movements to the JPA tables on one background thread, in journal order, one database
+// transaction per group committed by the engine. Each transaction also advances the ledger_projection row, so
+// recovery knows exactly which journal records the tables are missing. A group that fails to project is retried
+// with exponential backoff. If it still fails, projection stops (later groups are not applied past the gap; they
+// stay in the journal for the next startup to replay), the engine refuses new submissions and health reports DOWN.
+// Ledger snapshots are taken here, from the tables, between groups: every banking.ledger.snapshot.every-entries
+// projected journal records and on shutdown. See LedgerEngine.recover() for how they are used.
+@Component
+@ConditionalOnProperty(name = "banking.ledger.engine.enabled", havingValue = "true")
+public class LedgerProjector implements HealthIndicator {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LedgerProjector.class);
+    
+    private static final int CHUNK = 1000;
+    private static final String USERS = "SELECT id, username, password, first_name, last_name, email, token_version, "
+            + "token_version_changed_at FROM users";
+    private static final String ACCOUNTS = "SELECT a.id, a.user_id, a.account_number, a.account_type, a.description, a.balance_slots, "
+            + "a.balance + COALESCE((SELECT SUM(s.balance) FROM account_balance_slots s WHERE s.account_id = a.id), 0) FROM accounts a";
+    
+    @Autowired
+    private LedgerService ledgerService;
+    
+    @Autowired
+    private AccountService accountService;
+    
+    @Autowired
+    private HotAccountService hotAccountService;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Value("${banking.ledger.projector.retries:5}")
+    private int retries;
+    
+    @Value("${banking.ledger.projector.backoff-ms:200}")
+    private long backoffMillis;
+    
+    @Value("${banking.ledger.snapshot.directory:data/snapshots}")
+    private String snapshotDirectory;
+    
+    @Value("${banking.ledger.snapshot.every-entries:100000}")
+    private long snapshotEvery;
+    
+    @Value("${banking.ledger.snapshot.keep:2}")
+    private int snapshotsToKeep;
+    
+    private ExecutorService executor;
+    private volatile boolean failed;
+    private LedgerSnapshotStore snapshotStore;
+    // Where the tables are; only changed by the projector thread, or before the engine starts
+    private volatile Watermark projected;
+    private long entriesSinceSnapshot;
+    
+    @PostConstruct
+    void init() throws IOException {
+        snapshotStore = new LedgerSnapshotStore(Path.of(snapshotDirectory), snapshotsToKeep);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-projector");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    // Drains the queue when the context closes, after the engine has stopped and before any bean is destroyed, so the
+    // listeners of the events published while projecting are still there. Groups not projected in time are dropped;
+    // they are in the journal, and the next start replays them.
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    @EventListener(ContextClosedEvent.class)
+    public void drain() throws InterruptedException {
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+            logger.warn("Ledger projection did not finish before shutdown; the next start replays the rest of the journal");
+            return;
+        }
+        // A clean shutdown leaves nothing to replay on the next start
+        if (!failed && entriesSinceSnapshot > 0) {
+            writeSnapshot();
+        }
+    }
+    
+    // A context that failed to start is destroyed without being closed
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    // Last projected journal record and the offset just past it; (0, 0) until anything has been projected
+    public Watermark watermark() {
+        jdbcTemplate.update("INSERT INTO ledger_projection (id, last_sequence, journal_offset) "
+                + "SELECT 1, 0, 0 WHERE NOT EXISTS (SELECT 1 FROM ledger_projection WHERE id = 1)");
+        projected = jdbcTemplate.queryForObject("SELECT last_sequence, journal_offset FROM ledger_projection WHERE id = 1",
+                (row, i) -> new Watermark(row.getLong(1), row.getLong(2)));
+        return projected;
+    }
+    
+    public Optional<LedgerSnapshot> latestSnapshot() throws IOException {
+        return snapshotStore.latest();
+    }
+    
+    // True once a group could not be projected even after retries; the engine then stops taking submissions
+    public boolean failed() {
+        return failed;
+    }
+    
+    @Override
+    public Health health() {
+        Watermark at = projected;
+        return (failed ? Health.down() : Health.up())
+                .withDetail("projectedSequence", at != null ? at.sequence() : 0)
+                .build();
+    }
+    
+    // journalOffset is the journal position just past the last of the entries
+    public void project(List<JournalEntry> entries, long journalOffset) {
+        executor.execute(() -> {
+            if (failed) {
+                return;
+            }
+            long first = entries.get(0).sequence();
+            long last = entries.get(entries.size() - 1).sequence();
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    apply(entries, journalOffset);
+                    break;
+                } catch (RuntimeException e) {
+                    // A commit whose outcome was lost may still have gone through
+                    if (attempt > 1 && watermark().sequence() >= last) {
+                        break;
+                    }
+                    if (attempt > retries) {
+                        failed = true;
+                        logger.error("Failed to project ledger entries {}..{} after {} attempts; the engine refuses new "
+                                + "submissions until a restart replays the journal", first, last, attempt, e);
+                        return;
+                    }
+                    long delay = backoffMillis << (attempt - 1);
+                    logger.warn("Failed to project ledger entries {}..{} (attempt {}), retrying in {} ms: {}",
+                            first, last, attempt, delay, e.toString());
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        failed = true;
+                        return;
+                    }
+                }
+            }
+            entriesSinceSnapshot += entries.size();
+            if (entriesSinceSnapshot >= snapshotEvery) {
+                writeSnapshot();
+            }
+        });
+    }
+    
+    public void apply(List<JournalEntry> entries, long journalOffset) {
+        // Net change per account, applied in ascending id order
+        Map<Long, BigDecimal> deltas = new TreeMap<>();
+        List<Object[]> rows = new ArrayList<>(entries.size() * 2);
+        for (JournalEntry entry : entries) {
+            Timestamp date = new Timestamp(entry.timestamp());
+            deltas.merge(entry.debitAccountId(), entry.amount().negate(), BigDecimal::add);
+            rows.add(new Object[]{"DEBIT", entry.amount(), entry.debitDescription(), date, entry.debitAccountId()});
+            if (entry.creditAccountId() != null) {
+                deltas.merge(entry.creditAccountId(), entry.amount(), BigDecimal::add);
+                rows.add(new Object[]{"CREDIT", entry.amount(), entry.creditDescription(), date, entry.creditAccountId()});
+            }
+        }
+        long last = entries.get(entries.size() - 1).sequence();
+        transactionTemplate.executeWithoutResult(status -> {
+            deltas.forEach((accountId, delta) -> {
+                if (delta.signum() > 0) {
+                    ledgerService.credit(accountId, delta);
+                } else if (delta.signum() < 0) {
+                    // The engine only journals movements the balance covers, so a refusal means the tables
+                    // disagree with it; the group rolls back rather than writing a negative credit
+                    Long ownerId = accountService.getOwnerId(accountId).orElse(null);
+                    if (ownerId == null || !ledgerService.debit(accountId, ownerId, delta.negate())) {
+                        throw new IllegalStateException("Account " + accountId + " cannot cover a debit of " + delta.negate());
+                    }
+                }
+            });
+            ledgerService.recordBatch(rows);
+            long previous = entries.get(0).sequence() - 1;
+            int advanced = jdbcTemplate.update("UPDATE ledger_projection SET last_sequence = ?, journal_offset = ? "
+                    + "WHERE id = 1 AND last_sequence = ?", last, journalOffset, previous);
+            if (advanced != 1) {
+                throw new IllegalStateException("Ledger projection is not at sequence " + previous);
+            }
+        });
+        projected = new Watermark(last, journalOffset);
+    }
+    
+    // Seeds the tables from a snapshot the watermark is behind, in one transaction. Users and accounts the database
+    // lacks (all of them, on an empty in-memory database) are inserted with their original ids, and users_seq and
+    // accounts_seq are moved past them. Users already there are left alone: a password change or token revocation
+    // made after the snapshot is not in the journal and must not be undone. Accounts already there must have the
+    // snapshot's owner and number and take its balance. A hot account's balance goes to slot 0; one that has no
+    // slots in the database gets them from HotAccountService.enable. Then the ledger rows and the watermark, which
+    // moves to the snapshot. Ledger rows keep their original ids, so ids already published in change_log or held by
+    // search indexes still name the same rows; transactions_seq is then moved past them. Nothing is published for
+    // them; the rollups are dropped with the ledger rows and rebuilt on startup after the engine has recovered.
+    // Everything else (payees, idempotency keys, revoked tokens, change_log) is not in the snapshot.
+    public Watermark restore(LedgerSnapshot snapshot) {
+        long started = System.nanoTime();
+        int[] inserted = new int[2];
+        transactionTemplate.executeWithoutResult(status -> {
+            inserted[0] = restoreUsers(snapshot);
+            inserted[1] = restoreAccounts(snapshot);
+            
+            jdbcTemplate.update("DELETE FROM transaction_rollups");
+            jdbcTemplate.update("DELETE FROM transactions");
+            List<Object[]> rows = new ArrayList<>(CHUNK);
+            long[] maxId = {0};
+            try {
+                snapshotStore.readTransactions(snapshot, transaction -> {
+                    rows.add(new Object[]{transaction.id(), transaction.accountId(), transaction.type(), transaction.amount(),
+                            transaction.description(), Timestamp.valueOf(transaction.date())});
+                    maxId[0] = Math.max(maxId[0], transaction.id());
+                    if (rows.size() == CHUNK) {
+                        insertTransactions(rows);
+                        rows.clear();
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read ledger snapshot " + snapshot.sequence(), e);
+            }
+            insertTransactions(rows);
+            ledgerService.skipIdsThrough(Transaction.class, "transactions_seq", maxId[0]);
+            
+            jdbcTemplate.update("UPDATE ledger_projection SET last_sequence = ?, journal_offset = ? WHERE id = 1",
+                    snapshot.sequence(), snapshot.journalOffset());
+        });
+        projected = new Watermark(snapshot.sequence(), snapshot.journalOffset());
+        logger.info("Restored {} accounts ({} inserted, with {} users) and {} ledger rows from ledger snapshot {} in {} ms",
+                snapshot.accounts().size(), inserted[1], inserted[0], snapshot.transactionCount(), snapshot.sequence(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return projected;
+    }
+    
+    // Inserts the snapshot's users the database does not have; returns how many
+    private int restoreUsers(LedgerSnapshot snapshot) {
+        Set<Long> existing = new HashSet<>(jdbcTemplate.queryForList("SELECT id FROM users", Long.class));
+        List<Object[]> rows = new ArrayList<>(CHUNK);
+        long[] maxId = {0};
+        int[] inserted = {0};
+        try {
+            snapshotStore.readUsers(snapshot, user -> {
+                maxId[0] = Math.max(maxId[0], user.id());
+                if (existing.contains(user.id())) {
+                    return;
+                }
+                rows.add(new Object[]{user.id(), user.username(), user.password(), user.firstName(), user.lastName(),
+                        user.email(), user.tokenVersion(),
+                        user.tokenVersionChangedAt() != null ? Timestamp.from(user.tokenVersionChangedAt()) : null});
+                inserted[0]++;
+                if (rows.size() == CHUNK) {
+                    insertUsers(rows);
+                    rows.clear();
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read ledger snapshot " + snapshot.sequence(), e);
+        }
+        insertUsers(rows);
+        ledgerService.skipIdsThrough(User.class, "users_seq", maxId[0]);
+        return inserted[0];
+    }
+    
+    private void insertUsers(List<Object[]> rows) {
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO users (id, username, password, first_name, last_name, email, token_version, "
+                    + "token_version_changed_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?)", rows);
+        }
+    }
+    
+    // Inserts the snapshot's accounts the database does not have and sets the balances of the others; returns how
+    // many were inserted
+    private int restoreAccounts(LedgerSnapshot snapshot) {
+        Set<Long> existing = new HashSet<>(jdbcTemplate.queryForList("SELECT id FROM accounts", Long.class));
+        List<Object[]> inserts = new ArrayList<>();
+        List<Object[]> balances = new ArrayList<>(snapshot.accounts().size());
+        List<Object[]> ids = new ArrayList<>(snapshot.accounts().size());
+        long maxId = 0;
+        for (SnapshotAccount account : snapshot.accounts().values()) {
+            if (existing.contains(account.id())) {
+                balances.add(new Object[]{account.balance(), account.id(), account.userId(), account.accountNumber()});
+            } else {
+                // Inserted as a normal account; a hot one gets its slots below
+                inserts.add(new Object[]{account.id(), account.accountNumber(), account.accountType(), account.balance(),
+                        account.description(), account.userId()});
+            }
+            ids.add(new Object[]{account.id()});
+            maxId = Math.max(maxId, account.id());
+        }
+        for (int from = 0; from < inserts.size(); from += CHUNK) {
+            jdbcTemplate.batchUpdate("INSERT INTO accounts (id, account_number, account_type, balance, description, user_id, "
+                    + "version, balance_slots) VALUES (?, ?, ?, ?, ?, ?, 0, 0)", inserts.subList(from, Math.min(from + CHUNK, inserts.size())));
+        }
+        int[] updated = jdbcTemplate.batchUpdate(
+                "UPDATE accounts SET balance = ? WHERE id = ? AND user_id = ? AND account_number = ?", balances);
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                throw new IllegalStateException("Account " + balances.get(i)[1] + " (" + balances.get(i)[3]
+                        + ") in ledger snapshot " + snapshot.sequence() + " belongs to another user or has another number in the database");
+            }
+        }
+        // Hot accounts: the whole balance goes to slot 0 (no-ops for plain accounts, which have no slots)
+        jdbcTemplate.batchUpdate("UPDATE account_balance_slots SET balance = 0 WHERE account_id = ? AND slot <> 0", ids);
+        jdbcTemplate.batchUpdate("UPDATE account_balance_slots SET balance = (SELECT a.balance FROM accounts a "
+                + "WHERE a.id = account_balance_slots.account_id) WHERE account_id = ? AND slot = 0", ids);
+        jdbcTemplate.batchUpdate("UPDATE accounts SET balance = 0 WHERE id = ? AND balance_slots > 0", ids);
+        // A no-op for an account that already has its slots
+        for (SnapshotAccount account : snapshot.accounts().values()) {
+            if (account.balanceSlots() > 0) {
+                hotAccountService.enable(account.id(), account.balanceSlots());
+            }
+        }
+        ledgerService.skipIdsThrough(Account.class, "accounts_seq", maxId);
+        return inserts.size();
+    }
+    
+    private void insertTransactions(List<Object[]> rows) {
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO transactions (id, account_id, type, amount, description, date) "
+                    + "VALUES (?, ?, ?, ?, ?, ?)", rows);
+        }
+    }
+    
+    // Every account with its balance (including hot-account slots) as the tables have it, in id order
+    public void readAccounts(Consumer<SnapshotAccount> consumer) {
+        jdbcTemplate.query(connection -> streaming(connection.prepareStatement(ACCOUNTS + " ORDER BY a.id")),
+                row -> {
+                    consumer.accept(account(row));
+                });
+    }
+    
+    public Optional<SnapshotAccount> readAccount(Long accountId) {
+        return jdbcTemplate.query(ACCOUNTS + " WHERE a.id = ?", (row, i) -> account(row), accountId).stream().findFirst();
+    }
+    
+    private static SnapshotAccount account(ResultSet row) throws SQLException {
+        return new SnapshotAccount(row.getLong(1), row.getLong(2), row.getString(3), row.getString(4), row.getString(5),
+                row.getInt(6), row.getBigDecimal(7));
+    }
+    
+    // Runs on the projector thread between groups, or before the engine starts, so the tables are exactly at the
+    // watermark while they are read. A failure is logged and leaves the previous snapshot in place.
+    public void writeSnapshot() {
+        Watermark at = projected;
+        long started = System.nanoTime();
+        try (LedgerSnapshotStore.Writer writer = snapshotStore.create(at.sequence(), at.journalOffset(), System.currentTimeMillis())) {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.query(connection -> streaming(connection.prepareStatement(USERS + " ORDER BY id")),
+                        row -> {
+                            Timestamp changedAt = row.getTimestamp(8);
+                            writer.user(new SnapshotUser(row.getLong(1), row.getString(2), row.getString(3), row.getString(4),
+                                    row.getString(5), row.getString(6), row.getLong(7), changedAt != null ? changedAt.toInstant() : null));
+                        });
+                readAccounts(writer::account);
+                jdbcTemplate.query(connection -> streaming(connection.prepareStatement(
+                                "SELECT id, account_id, type, amount, description, date FROM transactions ORDER BY id")),
+                        row -> {
+                            writer.transaction(new SnapshotTransaction(row.getLong(1), row.getLong(2), row.getString(3),
+                                    row.getBigDecimal(4), row.getString(5), row.getTimestamp(6).toLocalDateTime()));
+                        });
+            });
+            writer.commit();
+            entriesSinceSnapshot = 0;
+            logger.info("Wrote ledger snapshot at sequence {} in {} ms", at.sequence(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to write ledger snapshot at sequence {}", at.sequence(), e);
+        }
+    }
+    
+    // Lets drivers that would otherwise buffer the whole result (PostgreSQL) stream it
+    private static PreparedStatement streaming(PreparedStatement statement) throws SQLException {
+        statement.setFetchSize(CHUNK);
+        return statement;
+    }
+    
+    public record Watermark(long sequence, long journalOffset) {
+    }
+}
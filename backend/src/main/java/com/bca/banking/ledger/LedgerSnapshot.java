@@ -0,0 +1,26 @@
+package com.bca.banking.ledger;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+// Users, accounts and ledger rows as of journal record `sequence`; replay resumes at byte `journalOffset` of the
+// journal. Only the accounts are held in memory; LedgerSnapshotStore.readUsers and readTransactions stream the rest
+// from the file.
+public record LedgerSnapshot(long sequence, long journalOffset, long timestamp, int userCount,
+                             Map<Long, SnapshotAccount> accounts, long transactionCount) {
+    
+    public record SnapshotUser(long id, String username, String password, String firstName, String lastName,
+                               String email, long tokenVersion, Instant tokenVersionChangedAt) {
+    }
+    
+    // balance includes a hot account's slots; balanceSlots is 0 for a normal account
+    public record SnapshotAccount(long id, long userId, String accountNumber, String accountType, String description,
+                                  int balanceSlots, BigDecimal balance) {
+    }
+    
+    public record SnapshotTransaction(long id, long accountId, String type, BigDecimal amount, String description,
+                                      LocalDateTime date) {
+    }
+}
@@ -0,0 +1,405 @@
+package com.bca.banking.ledger;
+
+import com.bca.banking.ledger.LedgerSnapshot.SnapshotAccount;
+import com.bca.banking.ledger.LedgerSnapshot.SnapshotTransaction;
+import com.bca.banking.ledger.LedgerSnapshot.SnapshotUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Compact binary snapshots of the ledger, one memory-mapped file per snapshot named by its journal sequence.
+// Layout: a header (magic, version, sequence, journal offset, timestamp, user count, offset of the accounts, account
+// count, offset of the ledger rows, ledger row count), the users, the accounts, the ledger rows, and a trailing crc32
+// of everything after the header followed by the header. Each user, account and ledger row is a [int length][payload]
+// record. Files are mapped a window at a time,
+// so their size is not bounded by what one mapping can hold. They are written under a temporary name and renamed,
+// so a crash never leaves a half-written snapshot behind.
+public class LedgerSnapshotStore {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LedgerSnapshotStore.class);
+    
+    private static final int MAGIC = 0x4C534E50; // "LSNP"
+    private static final int VERSION = 3;
+    private static final int HEADER = 4 + 4 + 8 + 8 + 8 + 4 + 8 + 4 + 8 + 8;
+    private static final int ACCOUNTS_OFFSET = 36;
+    private static final int TRANSACTIONS_OFFSET = 48;
+    private static final int WINDOW = 64 * 1024 * 1024;
+    private static final String SUFFIX = ".snapshot";
+    
+    private final Path directory;
+    private final int keep;
+    
+    public LedgerSnapshotStore(Path directory, int keep) throws IOException {
+        this.directory = directory;
+        this.keep = Math.max(1, keep);
+        Files.createDirectories(directory);
+    }
+    
+    // Users, then accounts, then ledger rows; nothing is visible until commit()
+    public Writer create(long sequence, long journalOffset, long timestamp) throws IOException {
+        return new Writer(sequence, journalOffset, timestamp);
+    }
+    
+    // Newest snapshot whose checksum verifies, with its accounts; corrupt files and older versions are skipped
+    // with a warning
+    public Optional<LedgerSnapshot> latest() throws IOException {
+        for (Path file : snapshotFiles()) {
+            try {
+                return Optional.of(read(file));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Ignoring unreadable ledger snapshot {}: {}", file, e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+    
+    // Users of a snapshot returned by latest(), in the order they were written
+    public void readUsers(LedgerSnapshot snapshot, Consumer<SnapshotUser> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(fileName(snapshot.sequence())), StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            Records records = new Records(channel, HEADER, header.getLong(ACCOUNTS_OFFSET));
+            for (int i = 0; i < snapshot.userCount(); i++) {
+                ByteBuffer in = records.next();
+                consumer.accept(new SnapshotUser(in.getLong(), string(in, in.getInt()), string(in, in.getInt()),
+                        string(in, in.getInt()), string(in, in.getInt()), string(in, in.getInt()), in.getLong(),
+                        in.get() != 0 ? Instant.ofEpochSecond(in.getLong(), in.getInt()) : null));
+            }
+        }
+    }
+    
+    // Ledger rows of a snapshot returned by latest(), in the order they were written
+    public void readTransactions(LedgerSnapshot snapshot, Consumer<SnapshotTransaction> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(fileName(snapshot.sequence())), StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            Records records = new Records(channel, header.getLong(TRANSACTIONS_OFFSET), channel.size() - 4);
+            for (long i = 0; i < snapshot.transactionCount(); i++) {
+                ByteBuffer in = records.next();
+                consumer.accept(new SnapshotTransaction(in.getLong(), in.getLong(), string(in, in.getShort()), amount(in),
+                        string(in, in.getInt()), LocalDateTime.ofEpochSecond(in.getLong(), in.getInt(), ZoneOffset.UTC)));
+            }
+        }
+    }
+    
+    private LedgerSnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER + 4) {
+                throw new IOException("truncated");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("not a version " + VERSION + " ledger snapshot");
+            }
+            CRC32 crc = new CRC32();
+            for (long at = HEADER; at < size - 4; at += WINDOW) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(WINDOW, size - 4 - at)));
+            }
+            crc.update(header.duplicate().clear());
+            if (channel.map(FileChannel.MapMode.READ_ONLY, size - 4, 4).getInt() != (int) crc.getValue()) {
+                throw new IOException("checksum mismatch");
+            }
+            long sequence = header.getLong();
+            long journalOffset = header.getLong();
+            long timestamp = header.getLong();
+            int userCount = header.getInt();
+            long accountsOffset = header.getLong();
+            int accountCount = header.getInt();
+            long transactionsOffset = header.getLong();
+            long transactionCount = header.getLong();
+            
+            Records records = new Records(channel, accountsOffset, transactionsOffset);
+            Map<Long, SnapshotAccount> accounts = new HashMap<>(accountCount * 2);
+            for (int i = 0; i < accountCount; i++) {
+                ByteBuffer in = records.next();
+                SnapshotAccount account = new SnapshotAccount(in.getLong(), in.getLong(), string(in, in.getShort()),
+                        string(in, in.getShort()), string(in, in.getInt()), in.getInt(), amount(in));
+                accounts.put(account.id(), account);
+            }
+            return new LedgerSnapshot(sequence, journalOffset, timestamp, userCount, accounts, transactionCount);
+        }
+    }
+    
+    private void prune() throws IOException {
+        List<Path> files = snapshotFiles();
+        for (Path file : files.subList(Math.min(keep, files.size()), files.size())) {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    // Newest first
+    private List<Path> snapshotFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing((Path file) -> file.getFileName().toString()).reversed())
+                    .toList();
+        }
+    }
+    
+    // Zero-padded so lexical order is sequence order
+    private static String fileName(long sequence) {
+        return String.format("ledger-%019d%s", sequence, SUFFIX);
+    }
+    
+    private static BigDecimal amount(ByteBuffer in) {
+        byte[] unscaled = new byte[in.get()];
+        in.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), in.get());
+    }
+    
+    private static byte[] bytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+    
+    // A negative length stands for null
+    private static String string(ByteBuffer in, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    // Reads [int length][payload] records between two file offsets through read-only windows
+    private static final class Records {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private MappedByteBuffer window;
+        private long windowStart;
+        
+        private Records(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+        
+        private ByteBuffer next() throws IOException {
+            return slice(slice(4).getInt());
+        }
+        
+        private ByteBuffer slice(int length) throws IOException {
+            if (position + length > end) {
+                throw new IOException("record runs past its section at offset " + position);
+            }
+            if (window == null || position + length > windowStart + window.capacity()) {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Math.max(WINDOW, length), end - position));
+            }
+            ByteBuffer slice = window.slice((int) (position - windowStart), length);
+            position += length;
+            return slice;
+        }
+    }
+    
+    // Appends records through read-write windows mapped past the end of the file; commit() cuts the file to what was
+    // written, fills in the header and checksum and moves the file into place. Mapping failures are thrown as
+    // UncheckedIOException, so rows can be fed straight from a JDBC row callback.
+    public final class Writer implements AutoCloseable {
+        private final long sequence;
+        private final long journalOffset;
+        private final long timestamp;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer record = ByteBuffer.allocate(256);
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position = HEADER;
+        private int userCount;
+        private long accountsOffset = -1;
+        private int accountCount;
+        private long transactionsOffset = -1;
+        private long transactionCount;
+        private boolean committed;
+        
+        private Writer(long sequence, long journalOffset, long timestamp) throws IOException {
+            this.sequence = sequence;
+            this.journalOffset = journalOffset;
+            this.timestamp = timestamp;
+            this.temporary = directory.resolve(fileName(sequence) + ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        
+        public void user(SnapshotUser user) {
+            if (accountsOffset >= 0) {
+                throw new IllegalStateException("Users must be written before accounts");
+            }
+            byte[][] strings = {bytes(user.username()), bytes(user.password()), bytes(user.firstName()),
+                    bytes(user.lastName()), bytes(user.email())};
+            int length = 8 + 8 + 1 + 8 + 4;
+            for (byte[] string : strings) {
+                length += 4 + (string != null ? string.length : 0);
+            }
+            start(length).putLong(user.id());
+            for (byte[] string : strings) {
+                record.putInt(string != null ? string.length : -1);
+                if (string != null) {
+                    record.put(string);
+                }
+            }
+            record.putLong(user.tokenVersion());
+            if (user.tokenVersionChangedAt() != null) {
+                record.put((byte) 1)
+                        .putLong(user.tokenVersionChangedAt().getEpochSecond())
+                        .putInt(user.tokenVersionChangedAt().getNano());
+            } else {
+                record.put((byte) 0);
+            }
+            finish();
+            userCount++;
+        }
+        
+        public void account(SnapshotAccount account) {
+            if (transactionsOffset >= 0) {
+                throw new IllegalStateException("Accounts must be written before ledger rows");
+            }
+            if (accountsOffset < 0) {
+                accountsOffset = position;
+            }
+            byte[] accountNumber = account.accountNumber().getBytes(StandardCharsets.UTF_8);
+            byte[] accountType = account.accountType().getBytes(StandardCharsets.UTF_8);
+            byte[] description = bytes(account.description());
+            byte[] unscaled = account.balance().unscaledValue().toByteArray();
+            start(8 + 8 + 2 + accountNumber.length + 2 + accountType.length + 4 + (description != null ? description.length : 0)
+                    + 4 + 1 + unscaled.length + 1)
+                    .putLong(account.id())
+                    .putLong(account.userId())
+                    .putShort((short) accountNumber.length)
+                    .put(accountNumber)
+                    .putShort((short) accountType.length)
+                    .put(accountType)
+                    .putInt(description != null ? description.length : -1);
+            if (description != null) {
+                record.put(description);
+            }
+            record.putInt(account.balanceSlots())
+                    .put((byte) unscaled.length)
+                    .put(unscaled)
+                    .put((byte) account.balance().scale());
+            finish();
+            accountCount++;
+        }
+        
+        public void transaction(SnapshotTransaction transaction) {
+            if (accountsOffset < 0) {
+                accountsOffset = position;
+            }
+            if (transactionsOffset < 0) {
+                transactionsOffset = position;
+            }
+            byte[] type = transaction.type().getBytes(StandardCharsets.UTF_8);
+            byte[] unscaled = transaction.amount().unscaledValue().toByteArray();
+            byte[] description = transaction.description() != null ? transaction.description().getBytes(StandardCharsets.UTF_8) : null;
+            start(8 + 8 + 2 + type.length + 1 + unscaled.length + 1 + 4 + (description != null ? description.length : 0) + 8 + 4)
+                    .putLong(transaction.id())
+                    .putLong(transaction.accountId())
+                    .putShort((short) type.length)
+                    .put(type)
+                    .put((byte) unscaled.length)
+                    .put(unscaled)
+                    .put((byte) transaction.amount().scale())
+                    .putInt(description != null ? description.length : -1);
+            if (description != null) {
+                record.put(description);
+            }
+            record.putLong(transaction.date().toEpochSecond(ZoneOffset.UTC)).putInt(transaction.date().getNano());
+            finish();
+            transactionCount++;
+        }
+        
+        public void commit() throws IOException {
+            if (accountsOffset < 0) {
+                accountsOffset = position;
+            }
+            if (transactionsOffset < 0) {
+                transactionsOffset = position;
+            }
+            if (window != null) {
+                window.force();
+                window = null;
+            }
+            channel.truncate(position);
+            ByteBuffer header = ByteBuffer.allocate(HEADER)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(sequence)
+                    .putLong(journalOffset)
+                    .putLong(timestamp)
+                    .putInt(userCount)
+                    .putLong(accountsOffset)
+                    .putInt(accountCount)
+                    .putLong(transactionsOffset)
+                    .putLong(transactionCount)
+                    .flip();
+            crc.update(header.duplicate());
+            channel.write(header, 0);
+            channel.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).flip(), position);
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, directory.resolve(fileName(sequence)), StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            prune();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+        
+        // Leaves room for the length prefix, filled in by finish()
+        private ByteBuffer start(int length) {
+            if (record.capacity() < length + 4) {
+                record = ByteBuffer.allocate(length + 4);
+            }
+            record.clear().position(4);
+            return record;
+        }
+        
+        private void finish() {
+            record.putInt(0, record.position() - 4).flip();
+            int length = record.remaining();
+            try {
+                if (window == null || position + length > windowStart + window.capacity()) {
+                    if (window != null) {
+                        window.force();
+                    }
+                    windowStart = position;
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(WINDOW, length));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            window.put((int) (position - windowStart), record, 0, length);
+            crc.update(record);
+            position += length;
+        }
+    }
+}
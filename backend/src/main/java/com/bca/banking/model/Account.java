@@ -1,9 +1,12 @@
 package com.bca.banking.model;
 
 import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.Formula;
 
 import java.math.BigDecimal;
 
@@ -14,7 +17,8 @@ import java.math.BigDecimal;
 @AllArgsConstructor
 public class Account {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "accounts_seq")
+    @SequenceGenerator(name = "accounts_seq", sequenceName = "accounts_seq", allocationSize = 50)
     private Long id;
     
     @Column(unique = true, nullable = false)
@@ -32,5 +36,26 @@ public class Account {
     @ManyToOne
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
+    
+    // Optimistic check on every balance write; a stale read fails instead of silently overwriting
+    @Version
+    private Long version;
+    
+    // Hot accounts keep their balance in this many account_balance_slots rows; 0 for a normal account
+    @Column(nullable = false)
+    private Integer balanceSlots = 0;
+    
+    @Formula("(CASE WHEN balance_slots = 0 THEN 0 "
+            + "ELSE (SELECT COALESCE(SUM(s.balance), 0) FROM account_balance_slots s WHERE s.account_id = id) END)")
+    @Setter(AccessLevel.NONE)
+    private BigDecimal slotBalance;
+    
+    // The balance column plus any hot-account slots, as read with the row
+    public BigDecimal getBalance() {
+        if (balance == null || slotBalance == null) {
+            return balance;
+        }
+        return balance.add(slotBalance);
+    }
 }
 
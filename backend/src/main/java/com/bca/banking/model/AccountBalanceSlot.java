@@ -0,0 +1,30 @@
+package com.bca.banking.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+// One share of a hot account's balance. The account's reported balance is its own column plus all its slots.
+@Entity
+@Table(name = "account_balance_slots", uniqueConstraints = @UniqueConstraint(columnNames = {"account_id", "slot"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountBalanceSlot {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "account_balance_slots_seq")
+    @SequenceGenerator(name = "account_balance_slots_seq", sequenceName = "account_balance_slots_seq", allocationSize = 50)
+    private Long id;
+    
+    @Column(name = "account_id", nullable = false)
+    private Long accountId;
+    
+    @Column(nullable = false)
+    private Integer slot;
+    
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal balance;
+}
@@ -0,0 +1,35 @@
+package com.bca.banking.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// One entity a user can see was created, changed or deleted. The sequence is drawn from change_log_seq at commit
+// time by ChangeLogService, which also bounds sync reads so a cursor never skips a late-committing change.
+@Entity
+@Table(name = "change_log", indexes = {
+        @Index(name = "idx_change_log_user_sequence", columnList = "user_id, sequence")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangeLogEntry {
+    // One value per call, so values follow the order they were drawn in on every node
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "change_log_seq")
+    @SequenceGenerator(name = "change_log_seq", sequenceName = "change_log_seq", allocationSize = 1)
+    private Long sequence;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Column(nullable = false)
+    private String entityType; // ACCOUNT, TRANSACTION, PAYEE
+    
+    @Column(nullable = false)
+    private Long entityId;
+    
+    @Column(nullable = false)
+    private Boolean deleted;
+}
@@ -0,0 +1,24 @@
+package com.bca.banking.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Single row recording how far the JPA tables reflect the ledger journal: the last projected record and the
+// journal offset just past it. Advanced in the same transaction as the balances and ledger rows it covers.
+@Entity
+@Table(name = "ledger_projection")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerProjection {
+    @Id
+    private Long id;
+    
+    @Column(name = "last_sequence", nullable = false)
+    private Long lastSequence;
+    
+    @Column(name = "journal_offset", nullable = false)
+    private Long journalOffset;
+}
@@ -12,7 +12,8 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class Payee {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payees_seq")
+    @SequenceGenerator(name = "payees_seq", sequenceName = "payees_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false)
@@ -0,0 +1,27 @@
+package com.bca.banking.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// A token id (jti) that must no longer be accepted: a rotated refresh token or a logged-out token. Kept until the
+// token would have expired anyway; the primary key makes each refresh token usable exactly once across nodes.
+@Entity
+@Table(name = "revoked_tokens")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RevokedToken {
+    @Id
+    @Column(name = "token_id", length = 64)
+    private String tokenId;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Column(name = "expires_at", nullable = false)
+    private Instant expiresAt;
+}
@@ -0,0 +1,45 @@
+package com.bca.banking.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Running total of one account's transactions of one type over a day or a month. Hot accounts spread each
+// period over several slot rows, like their balance, so concurrent postings do not queue on one row; readers sum them.
+@Entity
+@Table(name = "transaction_rollups", uniqueConstraints = @UniqueConstraint(
+        columnNames = {"account_id", "granularity", "period_start", "type", "slot"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransactionRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transaction_rollups_seq")
+    @SequenceGenerator(name = "transaction_rollups_seq", sequenceName = "transaction_rollups_seq", allocationSize = 50)
+    private Long id;
+    
+    @Column(name = "account_id", nullable = false)
+    private Long accountId;
+    
+    @Column(nullable = false)
+    private String granularity; // DAY, MONTH
+    
+    @Column(nullable = false)
+    private LocalDate periodStart;
+    
+    @Column(nullable = false)
+    private String type;
+    
+    @Column(nullable = false)
+    private Integer slot;
+    
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal total;
+    
+    @Column(nullable = false)
+    private Long transactionCount;
+}
@@ -5,14 +5,19 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
+
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = {
+        @Index(name = "idx_users_token_version_changed_at", columnList = "tokenVersionChangedAt")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 public class User {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @SequenceGenerator(name = "users_seq", sequenceName = "users_seq", allocationSize = 50)
     private Long id;
     
     @Column(unique = true, nullable = false)
@@ -29,5 +34,12 @@ public class User {
     
     @Column(unique = true)
     private String email;
+    
+    // Bumped to invalidate every token issued to this user (see TokenRevocationService)
+    @Column(nullable = false)
+    private Long tokenVersion = 0L;
+    
+    // When tokenVersion was last bumped; lets every node reload only the versions raised since its previous reload
+    private Instant tokenVersionChangedAt;
 }
 
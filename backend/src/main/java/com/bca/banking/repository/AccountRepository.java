@@ -1,9 +1,20 @@
 package com.bca.banking.repository;
 
+import com.bca.banking.dto.StatementAccount;
+import com.bca.banking.event.BalanceChanged;
 import com.bca.banking.model.Account;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,5 +22,55 @@ import java.util.Optional;
 public interface AccountRepository extends JpaRepository<Account, Long> {
     List<Account> findByUserId(Long userId);
     Optional<Account> findByAccountNumber(String accountNumber);
+    
+    @Query("SELECT a.user.id FROM Account a WHERE a.id = :id")
+    Optional<Long> findUserIdById(@Param("id") Long id);
+    
+    @Query("SELECT a.accountNumber FROM Account a WHERE a.id = :id")
+    Optional<String> findAccountNumberById(@Param("id") Long id);
+    
+    @Query("SELECT a.id FROM Account a WHERE a.user.id = :userId ORDER BY a.id")
+    List<Long> findIdsByUserId(@Param("userId") Long userId);
+    
+    @Query("SELECT a.id FROM Account a WHERE a.id > :afterId ORDER BY a.id")
+    List<Long> findIdsAfter(@Param("afterId") Long afterId, Limit limit);
+    
+    // One row per account in the id range; movedSince is the net of every transaction dated on or after :since
+    // (DEBIT rows take money out, every other type puts it in)
+    @Query("SELECT new com.bca.banking.dto.StatementAccount(a.id, a.accountNumber, a.accountType, a.balance, "
+            + "(SELECT COALESCE(SUM(s.balance), 0) FROM AccountBalanceSlot s WHERE s.accountId = a.id), "
+            + "(SELECT COALESCE(SUM(CASE WHEN t.type = 'DEBIT' THEN -t.amount ELSE t.amount END), 0) "
+            + "FROM Transaction t WHERE t.account.id = a.id AND t.date >= :since)) "
+            + "FROM Account a WHERE a.id BETWEEN :firstId AND :lastId ORDER BY a.id")
+    List<StatementAccount> findStatementAccounts(@Param("firstId") Long firstId,
+                                                 @Param("lastId") Long lastId,
+                                                 @Param("since") LocalDateTime since);
+    
+    // Locks the plain (unsharded) accounts among ids in ascending id order without loading them; returns their ids
+    @Query(value = "SELECT id FROM accounts WHERE id IN (:ids) AND balance_slots = 0 ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<Long> lockPlainAccounts(@Param("ids") Collection<Long> ids);
+    
+    // Selected as values rather than entities, so the balance is read from the tables even where a persistence
+    // context still holds the accounts as they were loaded earlier in the request
+    @Query("SELECT new com.bca.banking.event.BalanceChanged(a.id, a.balance + "
+            + "(SELECT COALESCE(SUM(s.balance), 0) FROM AccountBalanceSlot s WHERE s.accountId = a.id)) "
+            + "FROM Account a WHERE a.id IN :ids")
+    List<BalanceChanged> findBalancesByIdIn(@Param("ids") Collection<Long> ids);
+    
+    // Locks a set of accounts in one statement, scanning (and so locking) them in ascending id order
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM Account a WHERE a.id IN :ids ORDER BY a.id")
+    List<Account> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
+    
+    // Ownership, funds and the debit in one statement; returns the number of rows changed (0 or 1).
+    // Hot accounts never match: their balance lives in account_balance_slots.
+    @Modifying
+    @Query("UPDATE Account a SET a.balance = a.balance - :amount, a.version = a.version + 1 "
+            + "WHERE a.id = :id AND a.user.id = :userId AND a.balance >= :amount AND a.balanceSlots = 0")
+    int debit(@Param("id") Long id, @Param("userId") Long userId, @Param("amount") BigDecimal amount);
+    
+    @Modifying
+    @Query("UPDATE Account a SET a.balance = a.balance + :amount, a.version = a.version + 1 "
+            + "WHERE a.id = :id AND a.balanceSlots = 0")
+    int credit(@Param("id") Long id, @Param("amount") BigDecimal amount);
 }
-
@@ -0,0 +1,19 @@
+package com.bca.banking.repository;
+
+import com.bca.banking.model.ChangeLogEntry;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ChangeLogRepository extends JpaRepository<ChangeLogEntry, Long> {
+    
+    @Query("SELECT c FROM ChangeLogEntry c WHERE c.userId = :userId AND c.sequence > :since AND c.sequence <= :until "
+            + "ORDER BY c.sequence")
+    List<ChangeLogEntry> findChanges(@Param("userId") Long userId, @Param("since") Long since, @Param("until") Long until,
+                                     Limit limit);
+}
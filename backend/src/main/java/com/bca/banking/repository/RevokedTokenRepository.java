@@ -0,0 +1,31 @@
+package com.bca.banking.repository;
+
+import com.bca.banking.model.RevokedToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface RevokedTokenRepository extends JpaRepository<RevokedToken, String> {
+    
+    // A plain INSERT, so revoking an id that is already revoked fails with a duplicate key instead of merging
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO revoked_tokens (token_id, user_id, expires_at) VALUES (:tokenId, :userId, :expiresAt)",
+            nativeQuery = true)
+    int insert(@Param("tokenId") String tokenId, @Param("userId") Long userId, @Param("expiresAt") Instant expiresAt);
+    
+    @Query("SELECT r FROM RevokedToken r WHERE r.expiresAt > :now")
+    List<RevokedToken> findUnexpired(@Param("now") Instant now);
+    
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM RevokedToken r WHERE r.expiresAt <= :now")
+    int deleteExpired(@Param("now") Instant now);
+}
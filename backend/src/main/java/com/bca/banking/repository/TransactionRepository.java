@@ -1,13 +1,27 @@
 package com.bca.banking.repository;
 
+import com.bca.banking.dto.TransactionSummary;
+import com.bca.banking.event.PostedTransaction;
 import com.bca.banking.model.Transaction;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-public interface TransactionRepository extends JpaRepository<Transaction, Long> {
-    List<Transaction> findByAccountIdOrderByDateDesc(Long accountId);
+public interface TransactionRepository extends JpaRepository<Transaction, Long>, TransactionRepositoryCustom {
+    @Query("SELECT new com.bca.banking.dto.TransactionSummary(t.id, t.type, t.amount, t.description, t.date) "
+            + "FROM Transaction t WHERE t.account.id = :accountId ORDER BY t.date DESC, t.id DESC")
+    List<TransactionSummary> findSummariesByAccountId(@Param("accountId") Long accountId);
+    
+    @Query("SELECT new com.bca.banking.event.PostedTransaction(t.id, t.account.id, t.type, t.amount, t.description, t.date) "
+            + "FROM Transaction t WHERE t.id IN :ids ORDER BY t.id")
+    List<PostedTransaction> findPostedByIdIn(@Param("ids") Collection<Long> ids);
+    
+    @Query("SELECT new com.bca.banking.event.PostedTransaction(t.id, t.account.id, t.type, t.amount, t.description, t.date) "
+            + "FROM Transaction t WHERE t.account.user.id = :userId ORDER BY t.id")
+    List<PostedTransaction> findPostedByUserId(@Param("userId") Long userId);
 }
-
@@ -0,0 +1,20 @@
+package com.bca.banking.repository;
+
+import com.bca.banking.dto.TransactionSummary;
+import org.springframework.data.domain.Limit;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Queries whose WHERE clause depends on which arguments are present; implemented in TransactionRepositoryImpl
+public interface TransactionRepositoryCustom {
+    
+    // Keyset page: rows strictly after (cursorDate, cursorId) in (date DESC, id DESC) order. Null filters are ignored.
+    List<TransactionSummary> findPage(Long accountId, String type, LocalDateTime from, LocalDateTime to,
+                                      LocalDateTime cursorDate, Long cursorId, Limit limit);
+    
+    // Oldest first, read through a database cursor; must be consumed inside a transaction and closed.
+    // Null bounds are ignored.
+    Stream<TransactionSummary> streamByAccountId(Long accountId, LocalDateTime from, LocalDateTime to);
+}
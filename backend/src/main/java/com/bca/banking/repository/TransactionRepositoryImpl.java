@@ -0,0 +1,90 @@
+package com.bca.banking.repository;
+
+import com.bca.banking.dto.TransactionSummary;
+import com.bca.banking.model.Transaction;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.data.domain.Limit;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Only the filters that are present become predicates, so every page and export is a plain range on
+// idx_transactions_account_date_id; "(:x IS NULL OR ...)" terms would leave the planner nothing to seek on
+public class TransactionRepositoryImpl implements TransactionRepositoryCustom {
+    
+    private static final int STREAM_FETCH_SIZE = 500;
+    
+    @PersistenceContext
+    private EntityManager entityManager;
+    
+    @Override
+    public List<TransactionSummary> findPage(Long accountId, String type, LocalDateTime from, LocalDateTime to,
+                                             LocalDateTime cursorDate, Long cursorId, Limit limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<TransactionSummary> query = cb.createQuery(TransactionSummary.class);
+        Root<Transaction> t = query.from(Transaction.class);
+        Path<LocalDateTime> date = t.get("date");
+        Path<Long> id = t.get("id");
+        
+        List<Predicate> where = new ArrayList<>();
+        where.add(cb.equal(t.get("account").get("id"), accountId));
+        if (type != null) {
+            where.add(cb.equal(t.get("type"), type));
+        }
+        if (from != null) {
+            where.add(cb.greaterThanOrEqualTo(date, from));
+        }
+        if (to != null) {
+            where.add(cb.lessThan(date, to));
+        }
+        if (cursorDate != null) {
+            // date <= cursorDate bounds the range scan; the OR only trims rows sharing the cursor's date
+            where.add(cb.lessThanOrEqualTo(date, cursorDate));
+            where.add(cb.or(cb.lessThan(date, cursorDate), cb.lessThan(id, cursorId)));
+        }
+        
+        query.select(cb.construct(TransactionSummary.class, id, t.get("type"), t.get("amount"), t.get("description"), date))
+                .where(where.toArray(Predicate[]::new))
+                .orderBy(cb.desc(date), cb.desc(id));
+        TypedQuery<TransactionSummary> page = entityManager.createQuery(query);
+        if (limit.isLimited()) {
+            page.setMaxResults(limit.max());
+        }
+        return page.getResultList();
+    }
+    
+    @Override
+    public Stream<TransactionSummary> streamByAccountId(Long accountId, LocalDateTime from, LocalDateTime to) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<TransactionSummary> query = cb.createQuery(TransactionSummary.class);
+        Root<Transaction> t = query.from(Transaction.class);
+        Path<LocalDateTime> date = t.get("date");
+        Path<Long> id = t.get("id");
+        
+        List<Predicate> where = new ArrayList<>();
+        where.add(cb.equal(t.get("account").get("id"), accountId));
+        if (from != null) {
+            where.add(cb.greaterThanOrEqualTo(date, from));
+        }
+        if (to != null) {
+            where.add(cb.lessThan(date, to));
+        }
+        
+        query.select(cb.construct(TransactionSummary.class, id, t.get("type"), t.get("amount"), t.get("description"), date))
+                .where(where.toArray(Predicate[]::new))
+                .orderBy(cb.asc(date), cb.asc(id));
+        return entityManager.createQuery(query)
+                .setHint(AvailableHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                .getResultStream();
+    }
+}
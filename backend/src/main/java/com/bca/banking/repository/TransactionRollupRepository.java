@@ -0,0 +1,25 @@
+package com.bca.banking.repository;
+
+import com.bca.banking.dto.RollupTotal;
+import com.bca.banking.model.TransactionRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface TransactionRollupRepository extends JpaRepository<TransactionRollup, Long> {
+    
+    // Reads at most (periods x types x slots) rows through the unique key, however long the history
+    @Query("SELECT new com.bca.banking.dto.RollupTotal(r.periodStart, r.type, SUM(r.total), SUM(r.transactionCount)) "
+            + "FROM TransactionRollup r WHERE r.accountId = :accountId AND r.granularity = :granularity "
+            + "AND r.periodStart >= :from AND r.periodStart <= :to "
+            + "GROUP BY r.periodStart, r.type ORDER BY r.periodStart")
+    List<RollupTotal> findTotals(@Param("accountId") Long accountId,
+                                 @Param("granularity") String granularity,
+                                 @Param("from") LocalDate from,
+                                 @Param("to") LocalDate to);
+}
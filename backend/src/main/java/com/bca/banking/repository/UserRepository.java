@@ -1,14 +1,48 @@
 package com.bca.banking.repository;
 
+import com.bca.banking.dto.UserTokenVersion;
 import com.bca.banking.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     Optional<User> findByEmail(String email);
+    
+    // Compare-and-set so a background rehash never overwrites a password changed in the meantime
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.password = :newPassword WHERE u.id = :id AND u.password = :currentPassword")
+    int replacePasswordHash(@Param("id") Long id, @Param("currentPassword") String currentPassword, @Param("newPassword") String newPassword);
+    
+    // Sets the new password and invalidates every token issued under the old one in one statement, so the change
+    // can never commit without the revocation
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.password = :newPassword, u.tokenVersion = u.tokenVersion + 1, u.tokenVersionChangedAt = :now " +
+            "WHERE u.id = :id AND u.password = :currentPassword")
+    int changePassword(@Param("id") Long id, @Param("currentPassword") String currentPassword,
+                       @Param("newPassword") String newPassword, @Param("now") Instant now);
+    
+    @Query("SELECT u.tokenVersion FROM User u WHERE u.id = :id")
+    Optional<Long> findTokenVersionById(@Param("id") Long id);
+    
+    // Versions bumped at or after the given time; users never bumped have no change time and are left out
+    @Query("SELECT new com.bca.banking.dto.UserTokenVersion(u.id, u.tokenVersion, u.tokenVersionChangedAt) FROM User u " +
+            "WHERE u.tokenVersionChangedAt >= :since")
+    List<UserTokenVersion> findTokenVersionsChangedSince(@Param("since") Instant since);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.tokenVersion = u.tokenVersion + 1, u.tokenVersionChangedAt = :now WHERE u.id = :id")
+    int incrementTokenVersion(@Param("id") Long id, @Param("now") Instant now);
 }
-
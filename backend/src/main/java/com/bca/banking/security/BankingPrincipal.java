@@ -0,0 +1,12 @@
+package com.bca.banking.security;
+
+import java.time.Instant;
+
+// Immutable view of an authenticated caller, built once per request by JwtAuthenticationFilter.
+// Declare it as a controller method parameter to receive the current user.
+public record BankingPrincipal(Long userId, String username, Instant expiresAt, String tokenId, long tokenVersion) {
+    
+    public boolean isExpired(Instant now) {
+        return expiresAt == null || !expiresAt.isAfter(now);
+    }
+}
@@ -0,0 +1,73 @@
+package com.bca.banking.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Failed-login counters per username and per client IP. Checked before any user lookup or BCrypt work,
+// so a throttled attempt costs a hash lookup under a stripe lock.
+@Component
+public class LoginThrottle {
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${security.login-throttle.username.max-failures:5}")
+    private int usernameMaxFailures;
+    
+    @Value("${security.login-throttle.username.window-ms:900000}")
+    private long usernameWindowMillis;
+    
+    @Value("${security.login-throttle.ip.max-failures:50}")
+    private int ipMaxFailures;
+    
+    @Value("${security.login-throttle.ip.window-ms:300000}")
+    private long ipWindowMillis;
+    
+    @Value("${security.login-throttle.max-keys:100000}")
+    private int maxKeys;
+    
+    private SlidingWindowCounter usernameFailures;
+    private SlidingWindowCounter ipFailures;
+    private Counter throttledCounter;
+    
+    @PostConstruct
+    void init() {
+        usernameFailures = new SlidingWindowCounter(usernameMaxFailures, usernameWindowMillis, 64, maxKeys);
+        ipFailures = new SlidingWindowCounter(ipMaxFailures, ipWindowMillis, 64, maxKeys);
+        throttledCounter = Counter.builder("login.throttled").register(meterRegistry);
+    }
+    
+    // Throws LoginThrottledException if either the username or the client IP is over its failure limit
+    public void checkAllowed(String username, String clientIp) {
+        long now = System.currentTimeMillis();
+        long retryAfter = Math.max(
+                username != null ? usernameFailures.retryAfterMillis(username, now) : 0,
+                clientIp != null ? ipFailures.retryAfterMillis(clientIp, now) : 0
+        );
+        if (retryAfter > 0) {
+            throttledCounter.increment();
+            throw new LoginThrottledException((retryAfter + 999) / 1000);
+        }
+    }
+    
+    public void recordFailure(String username, String clientIp) {
+        long now = System.currentTimeMillis();
+        if (username != null) {
+            usernameFailures.record(username, now);
+        }
+        if (clientIp != null) {
+            ipFailures.record(clientIp, now);
+        }
+    }
+    
+    // A successful login clears the username's history; the IP window is left to expire on its own
+    public void recordSuccess(String username) {
+        if (username != null) {
+            usernameFailures.reset(username);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.bca.banking.security;
+
+// Thrown when a login attempt is refused by LoginThrottle before any credential check is made
+public class LoginThrottledException extends RuntimeException {
+    
+    private final long retryAfterSeconds;
+    
+    public LoginThrottledException(long retryAfterSeconds) {
+        super("Too many failed login attempts, please try again later");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+    
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,9 @@
+package com.bca.banking.security;
+
+// Thrown when the password hashing pool is saturated and cannot accept more work
+public class PasswordHashingRejectedException extends RuntimeException {
+    
+    public PasswordHashingRejectedException() {
+        super("Authentication service is busy, please retry shortly");
+    }
+}
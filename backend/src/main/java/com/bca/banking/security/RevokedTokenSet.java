@@ -0,0 +1,43 @@
+package com.bca.banking.security;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Revoked token ids (jti) with their expiry. A Bloom filter answers the common "not revoked" case without
+// touching the exact map; positives are confirmed against the exact set. Expired ids are purged and the
+// filter rebuilt so it does not saturate over time.
+public class RevokedTokenSet {
+    
+    private final ConcurrentHashMap<String, Long> expiryByTokenId = new ConcurrentHashMap<>();
+    private final int expectedEntries;
+    private final double falsePositiveRate;
+    private volatile BloomFilter filter;
+    
+    public RevokedTokenSet(int expectedEntries, double falsePositiveRate) {
+        this.expectedEntries = expectedEntries;
+        this.falsePositiveRate = falsePositiveRate;
+        this.filter = new BloomFilter(expectedEntries, falsePositiveRate);
+    }
+    
+    public boolean contains(String tokenId) {
+        return tokenId != null && filter.mightContain(tokenId) && expiryByTokenId.containsKey(tokenId);
+    }
+    
+    // Returns false if the id was already revoked
+    public synchronized boolean add(String tokenId, long expiresAtMillis) {
+        filter.put(tokenId);
+        return expiryByTokenId.putIfAbsent(tokenId, expiresAtMillis) == null;
+    }
+    
+    public synchronized void purgeExpired(long now) {
+        if (!expiryByTokenId.values().removeIf(expiresAt -> expiresAt <= now)) {
+            return;
+        }
+        BloomFilter rebuilt = new BloomFilter(Math.max(expectedEntries, expiryByTokenId.size() * 2), falsePositiveRate);
+        expiryByTokenId.keySet().forEach(rebuilt::put);
+        filter = rebuilt;
+    }
+    
+    public int size() {
+        return expiryByTokenId.size();
+    }
+}
@@ -0,0 +1,160 @@
+package com.bca.banking.security;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Counts events per key over a sliding time window. Keys are spread over lock stripes so unrelated keys never
+// contend, and each key keeps only a fixed ring of primitive timestamps (the last maxEvents), so memory per key
+// is bounded. Idle keys are swept out of a stripe as it is used. A stripe full of live keys makes room by dropping
+// the key that has been quiet longest, so filling a stripe (key hashes are predictable) can never lock out keys
+// it is not tracking; at worst it lets an evicted key start counting again.
+public class SlidingWindowCounter {
+    
+    private static final int SWEEP_INTERVAL = 256;
+    
+    private final int maxEvents;
+    private final long windowMillis;
+    private final int maxKeysPerStripe;
+    private final Stripe[] stripes;
+    
+    public SlidingWindowCounter(int maxEvents, long windowMillis, int stripeCount, int maxKeys) {
+        if (maxEvents <= 0 || windowMillis <= 0) {
+            throw new IllegalArgumentException("maxEvents and windowMillis must be positive");
+        }
+        int stripesPowerOfTwo = Integer.highestOneBit(Math.max(1, stripeCount));
+        this.maxEvents = maxEvents;
+        this.windowMillis = windowMillis;
+        this.maxKeysPerStripe = Math.max(1, maxKeys / stripesPowerOfTwo);
+        this.stripes = new Stripe[stripesPowerOfTwo];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+    
+    // Milliseconds until another event is allowed for the key, or 0 if the key is under the limit
+    public long retryAfterMillis(String key, long now) {
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            Window window = stripe.windows.get(key);
+            if (window == null || window.count < maxEvents) {
+                return 0;
+            }
+            long oldest = window.oldest(maxEvents);
+            long remaining = oldest + windowMillis - now;
+            return Math.max(0, remaining);
+        }
+    }
+    
+    public void record(String key, long now) {
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            if (++stripe.operations % SWEEP_INTERVAL == 0) {
+                sweep(stripe, now);
+            }
+            Window window = stripe.windows.get(key);
+            if (window == null) {
+                if (isFull(stripe, now)) {
+                    evictQuietest(stripe);
+                }
+                window = new Window(maxEvents);
+                stripe.windows.put(key, window);
+            }
+            window.add(now);
+        }
+    }
+    
+    public void reset(String key) {
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.windows.remove(key);
+        }
+    }
+    
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.windows.size();
+            }
+        }
+        return size;
+    }
+    
+    // At capacity a sweep can only help once a window has expired, so a full stripe is scanned at most once per
+    // expiry rather than on every call
+    private boolean isFull(Stripe stripe, long now) {
+        if (stripe.windows.size() >= maxKeysPerStripe && now >= stripe.nextExpiry) {
+            sweep(stripe, now);
+        }
+        return stripe.windows.size() >= maxKeysPerStripe;
+    }
+    
+    private void evictQuietest(Stripe stripe) {
+        String quietest = null;
+        long quietestNewest = Long.MAX_VALUE;
+        for (Map.Entry<String, Window> entry : stripe.windows.entrySet()) {
+            long newest = entry.getValue().newest();
+            if (newest < quietestNewest) {
+                quietestNewest = newest;
+                quietest = entry.getKey();
+            }
+        }
+        stripe.windows.remove(quietest);
+    }
+    
+    // Drops expired windows and notes when the next of the remaining ones expires
+    private void sweep(Stripe stripe, long now) {
+        long nextExpiry = Long.MAX_VALUE;
+        Iterator<Window> windows = stripe.windows.values().iterator();
+        while (windows.hasNext()) {
+            long expiry = windows.next().newest() + windowMillis;
+            if (expiry <= now) {
+                windows.remove();
+            } else {
+                nextExpiry = Math.min(nextExpiry, expiry);
+            }
+        }
+        stripe.nextExpiry = nextExpiry;
+    }
+    
+    private Stripe stripeFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+    
+    private static final class Stripe {
+        private final Map<String, Window> windows = new HashMap<>();
+        private long operations;
+        private long nextExpiry;
+    }
+    
+    // Ring buffer of the most recent event timestamps for one key
+    private static final class Window {
+        private final long[] timestamps;
+        private int next;
+        private int count;
+        
+        private Window(int capacity) {
+            this.timestamps = new long[capacity];
+        }
+        
+        private void add(long timestamp) {
+            timestamps[next] = timestamp;
+            next = (next + 1) % timestamps.length;
+            if (count < timestamps.length) {
+                count++;
+            }
+        }
+        
+        private long newest() {
+            return timestamps[(next - 1 + timestamps.length) % timestamps.length];
+        }
+        
+        // Oldest of the last n events (n <= count)
+        private long oldest(int n) {
+            return timestamps[(next - n + timestamps.length) % timestamps.length];
+        }
+    }
+}
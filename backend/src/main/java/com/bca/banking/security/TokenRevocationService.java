@@ -0,0 +1,158 @@
+package com.bca.banking.security;
+
+import com.bca.banking.dto.UserTokenVersion;
+import com.bca.banking.event.TokensRevokedEvent;
+import com.bca.banking.model.RevokedToken;
+import com.bca.banking.repository.RevokedTokenRepository;
+import com.bca.banking.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Decides whether an otherwise valid token has been revoked, without a database round trip on the request path.
+// Two mechanisms:
+//  - a per-user token version: tokens carry the version they were issued with, and bumping the stored version
+//    (password change, refresh token reuse) invalidates every older token of that user;
+//  - a set of individually revoked token ids (logout, rotated refresh tokens), kept until the tokens expire.
+// The version map is authoritative in memory for access tokens: raised at once by bumps made on this node, and
+// reloaded in the background every version-refresh-ms with only the versions bumped since the previous reload, so a
+// bump made on another node is seen within that time. Once a bump is older than the access-token lifetime every token
+// it was meant to invalidate has expired, so the entry is dropped again and the map only holds recent bumps. The
+// request path never reads the database; the refresh path and token issuing always use the stored version.
+// Revoked ids are written to revoked_tokens and reloaded on startup, and a refresh token is only accepted if its id
+// can be inserted there, so rotation holds across nodes and restarts.
+@Component
+public class TokenRevocationService {
+    
+    @Autowired
+    private UserRepository userRepository;
+    
+    @Autowired
+    private RevokedTokenRepository revokedTokenRepository;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Value("${security.revocation.expected-entries:100000}")
+    private int expectedEntries;
+    
+    @Value("${security.revocation.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+    
+    @Value("${jwt.expiration}")
+    private long accessTokenLifetimeMs;
+    
+    @Value("${security.revocation.version-refresh-ms:30000}")
+    private long versionRefreshMs;
+    
+    // Users missing from the map are at version 0 or were last bumped too long ago for it to matter
+    private final ConcurrentHashMap<Long, KnownVersion> tokenVersions = new ConcurrentHashMap<>();
+    private RevokedTokenSet revokedTokens;
+    private volatile Instant lastReload;
+    
+    private record KnownVersion(long version, long changedAt) {
+        static KnownVersion newer(KnownVersion a, KnownVersion b) {
+            if (a.version != b.version) {
+                return a.version > b.version ? a : b;
+            }
+            return a.changedAt >= b.changedAt ? a : b;
+        }
+    }
+    
+    @PostConstruct
+    void init() {
+        revokedTokens = new RevokedTokenSet(expectedEntries, falsePositiveRate);
+        for (RevokedToken token : revokedTokenRepository.findUnexpired(Instant.now())) {
+            revokedTokens.add(token.getTokenId(), token.getExpiresAt().toEpochMilli());
+        }
+        reloadTokenVersions();
+    }
+    
+    // Picks up bumps made on other nodes; versions only ever rise, so a reload never lowers one. Each reload reaches
+    // back one refresh interval past the previous one, covering bumps whose transaction committed after that read and
+    // clock skew between nodes
+    @Scheduled(fixedDelayString = "${security.revocation.version-refresh-ms:30000}",
+            initialDelayString = "${security.revocation.version-refresh-ms:30000}")
+    public void reloadTokenVersions() {
+        Instant started = Instant.now();
+        Instant since = lastReload == null ? pruneHorizon(started) : lastReload.minusMillis(versionRefreshMs);
+        for (UserTokenVersion stored : userRepository.findTokenVersionsChangedSince(since)) {
+            record(stored.userId(), stored.version(), stored.changedAt().toEpochMilli());
+        }
+        lastReload = started;
+    }
+    
+    public boolean isRevoked(BankingPrincipal principal) {
+        return principal.tokenVersion() < currentTokenVersion(principal.userId())
+                || revokedTokens.contains(principal.tokenId());
+    }
+    
+    public long currentTokenVersion(Long userId) {
+        KnownVersion known = tokenVersions.get(userId);
+        return known == null ? 0L : known.version();
+    }
+    
+    // Reads the stored version, bypassing the map. The change time is not read, so the entry is kept as if bumped now
+    public long loadTokenVersion(Long userId) {
+        long version = userRepository.findTokenVersionById(userId).orElse(0L);
+        record(userId, version, System.currentTimeMillis());
+        return version;
+    }
+    
+    private void record(Long userId, long version, long changedAt) {
+        if (version > 0) {
+            tokenVersions.merge(userId, new KnownVersion(version, changedAt), KnownVersion::newer);
+        }
+    }
+    
+    // Invalidates every token issued to the user so far
+    public long revokeAllTokens(Long userId) {
+        userRepository.incrementTokenVersion(userId, Instant.now());
+        return tokenVersionRaised(userId);
+    }
+    
+    // For callers that bumped the stored version in their own statement (see UserRepository.changePassword)
+    public long tokenVersionRaised(Long userId) {
+        long version = loadTokenVersion(userId);
+        eventPublisher.publishEvent(new TokensRevokedEvent(userId, null));
+        return version;
+    }
+    
+    // Returns false if the token had already been revoked, here or on another node
+    public boolean revoke(BankingPrincipal principal) {
+        if (principal.tokenId() == null) {
+            return true;
+        }
+        boolean first;
+        try {
+            revokedTokenRepository.insert(principal.tokenId(), principal.userId(), principal.expiresAt());
+            first = revokedTokens.add(principal.tokenId(), principal.expiresAt().toEpochMilli());
+        } catch (DataIntegrityViolationException e) {
+            revokedTokens.add(principal.tokenId(), principal.expiresAt().toEpochMilli());
+            first = false;
+        }
+        eventPublisher.publishEvent(new TokensRevokedEvent(principal.userId(), principal.tokenId()));
+        return first;
+    }
+    
+    @Scheduled(fixedDelayString = "${security.revocation.purge-interval-ms:60000}")
+    public void purgeExpired() {
+        Instant now = Instant.now();
+        revokedTokens.purgeExpired(now.toEpochMilli());
+        revokedTokenRepository.deleteExpired(now);
+        long horizon = pruneHorizon(now).toEpochMilli();
+        tokenVersions.values().removeIf(known -> known.changedAt() < horizon);
+    }
+    
+    // Every access token issued before this time has expired, even allowing a reload interval of skew
+    private Instant pruneHorizon(Instant now) {
+        return now.minusMillis(accessTokenLifetimeMs + versionRefreshMs);
+    }
+}
@@ -0,0 +1,82 @@
+package com.bca.banking.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Caches the result of a successful signature verification, keyed by a SHA-256 digest of the raw token.
+// Entries expire together with the token, so a cache hit is never more permissive than a fresh parse.
+// A full cache is swept down to nine tenths of max-entries, so the O(n) sweep runs once per tenth of the capacity
+// in new tokens rather than on every miss; one thread sweeps while the others carry on.
+@Component
+public class VerifiedClaimsCache {
+    
+    private final ConcurrentHashMap<String, BankingPrincipal> entries = new ConcurrentHashMap<>();
+    
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    
+    @Value("${jwt.cache.max-entries:10000}")
+    private int maxEntries;
+    
+    public BankingPrincipal get(String token) {
+        String key = digest(token);
+        BankingPrincipal principal = entries.get(key);
+        if (principal == null) {
+            return null;
+        }
+        if (principal.isExpired(Instant.now())) {
+            entries.remove(key, principal);
+            return null;
+        }
+        return principal;
+    }
+    
+    public void put(String token, BankingPrincipal principal) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        if (entries.size() >= maxEntries && evicting.compareAndSet(false, true)) {
+            try {
+                evict();
+            } finally {
+                evicting.set(false);
+            }
+        }
+        entries.put(digest(token), principal);
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    private void evict() {
+        Instant now = Instant.now();
+        entries.values().removeIf(principal -> principal.isExpired(now));
+        
+        // Still mostly live tokens: drop arbitrary entries, they will simply be re-verified on next use
+        int lowWater = maxEntries * 9 / 10;
+        Iterator<String> keys = entries.keySet().iterator();
+        while (entries.size() > lowWater && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+    
+    private static String digest(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            byte[] hash = sha256.digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,32 +1,224 @@
 package com.bca.banking.service;
 
+import com.bca.banking.dto.AccountView;
 import com.bca.banking.model.Account;
 import com.bca.banking.repository.AccountRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+// Account reads are served from a per-user cache of AccountView lists in a ConcurrentHashMap, so a hit takes no
+// lock. LedgerService, through which every balance change goes, evicts the owner's entry once the change has
+// committed, so a cached balance is never newer than the database and never older than the last commit. The age
+// limit only covers writes that bypass LedgerService. Expired entries are swept periodically; when an insert takes
+// the cache past maxUsers, the oldest loads go first, down to nine tenths of the limit so sweeps stay rare.
 @Service
 public class AccountService {
     
     @Autowired
     private AccountRepository accountRepository;
     
-    public List<Account> getAccountsByUserId(Long userId) {
-        return accountRepository.findByUserId(userId);
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${banking.accounts.cache.max-users:10000}")
+    private int maxUsers;
+    
+    @Value("${banking.accounts.cache.ttl-ms:300000}")
+    private long ttlMillis;
+    
+    @Value("${banking.accounts.owners.max-entries:100000}")
+    private int maxOwners;
+    
+    // Accounts never change owner, so a remembered owner never goes stale; the map is only bounded in size
+    private final ConcurrentHashMap<Long, Long> owners = new ConcurrentHashMap<>();
+    
+    private final ConcurrentHashMap<Long, CachedAccounts> accountsByUser = new ConcurrentHashMap<>();
+    private Counter hits;
+    private Counter misses;
+    private Counter sizeEvictions;
+    private Counter expiredEvictions;
+    private Counter invalidations;
+    
+    @PostConstruct
+    void init() {
+        hits = Counter.builder("accounts.cache.requests").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("accounts.cache.requests").tag("result", "miss").register(meterRegistry);
+        sizeEvictions = Counter.builder("accounts.cache.evictions").tag("cause", "size").register(meterRegistry);
+        expiredEvictions = Counter.builder("accounts.cache.evictions").tag("cause", "expired").register(meterRegistry);
+        invalidations = Counter.builder("accounts.cache.evictions").tag("cause", "invalidated").register(meterRegistry);
+        Gauge.builder("accounts.cache.users", accountsByUser, Map::size).register(meterRegistry);
+        Gauge.builder("accounts.owners.cached", owners, Map::size).register(meterRegistry);
     }
     
-    public Optional<Account> getAccountById(Long accountId) {
-        if (accountId == null) {
-            return Optional.empty();
+    public List<AccountView> getAccountsByUserId(Long userId) {
+        CachedAccounts cached = accountsByUser.get(userId);
+        if (cached != null && cached.accounts != null) {
+            if (!cached.expired(System.nanoTime())) {
+                hits.increment();
+                return cached.accounts;
+            }
+            expiredEvictions.increment();
         }
-        return accountRepository.findById(accountId);
+        // Marks the load in progress; an eviction while the database is read removes the marker, and the
+        // result, which may predate the change, is then returned without being cached
+        CachedAccounts pending = new CachedAccounts(null, System.nanoTime());
+        accountsByUser.put(userId, pending);
+        misses.increment();
+        
+        List<Account> accounts = accountRepository.findByUserId(userId);
+        for (Account account : accounts) {
+            rememberOwner(account.getId(), userId);
+        }
+        List<AccountView> views = accounts.stream().map(AccountView::from).toList();
+        if (accountsByUser.replace(userId, pending, new CachedAccounts(views, pending.loadedAt))
+                && accountsByUser.size() > maxUsers) {
+            trim();
+        }
+        return views;
+    }
+    
+    // Looked up in the owner's cached list, so repeated balance reads stay off the database
+    public Optional<AccountView> getAccountById(Long accountId) {
+        return getOwnerId(accountId).flatMap(userId -> getAccountsByUserId(userId).stream()
+                .filter(account -> account.id().equals(accountId))
+                .findFirst());
     }
     
     public Optional<Account> getAccountByNumber(String accountNumber) {
         return accountRepository.findByAccountNumber(accountNumber);
     }
+    
+    // Owner of the account without loading the Account or its User
+    public Optional<Long> getOwnerId(Long accountId) {
+        if (accountId == null) {
+            return Optional.empty();
+        }
+        Long cached = owners.get(accountId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<Long> ownerId = accountRepository.findUserIdById(accountId);
+        ownerId.ifPresent(id -> rememberOwner(accountId, id));
+        return ownerId;
+    }
+    
+    // Owner if this node has already looked it up, otherwise null; never touches the database
+    public Long getCachedOwnerId(Long accountId) {
+        return accountId != null ? owners.get(accountId) : null;
+    }
+    
+    // Called where a balance changes, inside the changing transaction. The owner's cached accounts are dropped
+    // after commit (once per transaction however many changes it makes), or straight away outside a transaction.
+    public void evictAfterCommit(Long accountId) {
+        Optional<Long> ownerId = getOwnerId(accountId);
+        if (ownerId.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict(ownerId.get());
+            return;
+        }
+        PendingEvictions pending = (PendingEvictions) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingEvictions();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.userIds.add(ownerId.get());
+    }
+    
+    private void evict(Long userId) {
+        CachedAccounts removed = accountsByUser.remove(userId);
+        if (removed != null && removed.accounts != null) {
+            invalidations.increment();
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${banking.accounts.cache.sweep-ms:60000}")
+    public void sweep() {
+        long now = System.nanoTime();
+        accountsByUser.forEach((userId, cached) -> {
+            if (cached.expired(now) && accountsByUser.remove(userId, cached) && cached.accounts != null) {
+                expiredEvictions.increment();
+            }
+        });
+        trim();
+    }
+    
+    // Only trimming is serialized; reads and loads never wait on it
+    private synchronized void trim() {
+        if (accountsByUser.size() > maxUsers) {
+            List<Map.Entry<Long, CachedAccounts>> oldestFirst = new ArrayList<>(accountsByUser.entrySet());
+            oldestFirst.sort(Comparator.comparingLong(entry -> entry.getValue().loadedAt));
+            int excess = oldestFirst.size() - maxUsers * 9 / 10;
+            for (int i = 0; i < excess; i++) {
+                Map.Entry<Long, CachedAccounts> entry = oldestFirst.get(i);
+                if (accountsByUser.remove(entry.getKey(), entry.getValue())) {
+                    sizeEvictions.increment();
+                }
+            }
+        }
+        // Owners have no age to go by; any of them can be looked up again
+        if (owners.size() > maxOwners) {
+            Iterator<Long> accountIds = owners.keySet().iterator();
+            while (owners.size() > maxOwners * 9 / 10 && accountIds.hasNext()) {
+                accountIds.next();
+                accountIds.remove();
+            }
+        }
+    }
+    
+    private void rememberOwner(Long accountId, Long userId) {
+        if (owners.putIfAbsent(accountId, userId) == null && owners.size() > maxOwners) {
+            trim();
+        }
+    }
+    
+    // accounts is null while the entry only marks a load in progress. Compared by identity, so replacing or
+    // removing a marker never matches a different load's marker.
+    private final class CachedAccounts {
+        private final List<AccountView> accounts;
+        private final long loadedAt;
+        
+        private CachedAccounts(List<AccountView> accounts, long loadedAt) {
+            this.accounts = accounts;
+            this.loadedAt = loadedAt;
+        }
+        
+        private boolean expired(long now) {
+            return now - loadedAt >= ttlMillis * 1_000_000;
+        }
+    }
+    
+    private final class PendingEvictions implements TransactionSynchronization {
+        private final Set<Long> userIds = new HashSet<>();
+        
+        @Override
+        public void afterCommit() {
+            userIds.forEach(AccountService.this::evict);
+        }
+        
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResource(AccountService.this);
+        }
+    }
 }
-
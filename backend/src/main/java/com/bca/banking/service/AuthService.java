@@ -4,16 +4,25 @@ import com.bca.banking.dto.LoginRequest;
 import com.bca.banking.dto.LoginResponse;
 import com.bca.banking.model.User;
 import com.bca.banking.repository.UserRepository;
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.security.LoginThrottle;
+import com.bca.banking.security.PasswordHashingService;
+import com.bca.banking.security.TokenRevocationService;
 import com.bca.banking.util.JwtUtil;
+import io.jsonwebtoken.JwtException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class AuthService {
     
+    private static final Logger logger = LoggerFactory.getLogger(AuthService.class);
+    
     @Autowired
     private UserRepository userRepository;
     
@@ -21,24 +30,107 @@ public class AuthService {
     private JwtUtil jwtUtil;
     
     @Autowired
-    private PasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
+    
+    @Autowired
+    private LoginThrottle loginThrottle;
     
-    public LoginResponse login(LoginRequest request) {
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+    
+    // The password check runs on the hashing pool; the returned future completes there
+    public CompletableFuture<LoginResponse> login(LoginRequest request, String clientIp) {
+        // Refuse throttled callers before touching the database or BCrypt
+        loginThrottle.checkAllowed(request.getUsername(), clientIp);
+        
         Optional<User> userOpt = userRepository.findByUsername(request.getUsername());
         
         if (userOpt.isEmpty()) {
-            throw new RuntimeException("Invalid username or password");
+            // Only the IP is charged: a window per made-up username would let anyone fill the username counter
+            loginThrottle.recordFailure(null, clientIp);
+            return CompletableFuture.failedFuture(new RuntimeException("Invalid username or password"));
         }
         
         User user = userOpt.get();
         
-        if (!passwordEncoder.matches(request.getPassword(), user.getPassword())) {
-            throw new RuntimeException("Invalid username or password");
+        return passwordHashingService.matches(request.getPassword(), user.getPassword())
+                .thenApply(matches -> {
+                    if (!matches) {
+                        loginThrottle.recordFailure(request.getUsername(), clientIp);
+                        throw new RuntimeException("Invalid username or password");
+                    }
+                    loginThrottle.recordSuccess(request.getUsername());
+                    
+                    if (passwordHashingService.upgradeEncoding(user.getPassword())) {
+                        rehash(user, request.getPassword());
+                    }
+                    
+                    return issueTokens(user.getId(), user.getUsername(), user.getTokenVersion(), "Login successful");
+                });
+    }
+    
+    // Exchanges a refresh token for a new access/refresh pair. Each refresh token is single-use: presenting one
+    // that was already rotated is treated as theft and revokes every token of the user.
+    public LoginResponse refresh(String refreshToken) {
+        BankingPrincipal principal;
+        try {
+            principal = jwtUtil.parseRefreshToken(refreshToken);
+        } catch (JwtException | IllegalArgumentException e) {
+            throw new RuntimeException("Invalid refresh token");
         }
         
-        String token = jwtUtil.generateToken(user.getUsername(), user.getId());
+        // Read from the database: a revocation made on another node may not have reached this node's cache yet
+        long tokenVersion = tokenRevocationService.loadTokenVersion(principal.userId());
+        if (principal.tokenVersion() < tokenVersion) {
+            throw new RuntimeException("Invalid refresh token");
+        }
+        
+        if (!tokenRevocationService.revoke(principal)) {
+            logger.warn("Refresh token reuse detected for user {}, revoking all tokens", principal.userId());
+            tokenRevocationService.revokeAllTokens(principal.userId());
+            throw new RuntimeException("Invalid refresh token");
+        }
         
-        return new LoginResponse(token, user.getId(), user.getUsername(), "Login successful");
+        return issueTokens(principal.userId(), principal.username(), tokenVersion, "Token refreshed");
+    }
+    
+    public void logout(BankingPrincipal principal, String refreshToken) {
+        if (principal != null) {
+            tokenRevocationService.revoke(principal);
+        }
+        if (refreshToken != null) {
+            try {
+                tokenRevocationService.revoke(jwtUtil.parseRefreshToken(refreshToken));
+            } catch (JwtException | IllegalArgumentException e) {
+                // Nothing to revoke
+            }
+        }
+    }
+    
+    public LoginResponse issueTokens(Long userId, String username, String message) {
+        return issueTokens(userId, username, tokenRevocationService.loadTokenVersion(userId), message);
+    }
+    
+    // The version comes from the database, never the in-memory map, which drops users not bumped recently
+    private LoginResponse issueTokens(Long userId, String username, long tokenVersion, String message) {
+        return new LoginResponse(
+                jwtUtil.generateToken(username, userId, tokenVersion),
+                jwtUtil.generateRefreshToken(username, userId, tokenVersion),
+                jwtUtil.getExpirationSeconds(),
+                userId,
+                username,
+                message
+        );
+    }
+    
+    // Re-encode with the configured cost in the background; the login response does not wait for it
+    private void rehash(User user, String rawPassword) {
+        String previousHash = user.getPassword();
+        passwordHashingService.encode(rawPassword)
+                .thenAccept(newHash -> userRepository.replacePasswordHash(user.getId(), previousHash, newHash))
+                .exceptionally(e -> {
+                    logger.warn("Password rehash skipped for user {}: {}", user.getId(), e.getMessage());
+                    return null;
+                });
     }
 }
-
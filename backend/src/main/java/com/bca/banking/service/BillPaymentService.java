@@ -1,19 +1,17 @@
 package com.bca.banking.service;
 
-import com.bca.banking.model.Account;
+import com.bca.banking.ledger.LedgerEngine.Leg;
+import com.bca.banking.ledger.LedgerEngine;
 import com.bca.banking.model.Payee;
-import com.bca.banking.model.Transaction;
 import com.bca.banking.model.User;
-import com.bca.banking.repository.AccountRepository;
 import com.bca.banking.repository.PayeeRepository;
-import com.bca.banking.repository.TransactionRepository;
 import com.bca.banking.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
-import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,21 +19,28 @@ import java.util.Optional;
 public class BillPaymentService {
     
     @Autowired
-    private AccountRepository accountRepository;
+    private PayeeRepository payeeRepository;
     
     @Autowired
-    private PayeeRepository payeeRepository;
+    private LedgerService ledgerService;
     
     @Autowired
-    private TransactionRepository transactionRepository;
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired(required = false)
+    private LedgerEngine ledgerEngine;
     
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private ChangeLogService changeLogService;
+    
     public List<Payee> getPayeesByUserId(Long userId) {
         return payeeRepository.findByUserId(userId);
     }
     
+    @Transactional
     public Payee addPayee(String name, String accountNumber, String category, Long userId) {
         if (userId == null) {
             return null;
@@ -52,9 +57,12 @@ public class BillPaymentService {
         payee.setCategory(category);
         payee.setUser(userOpt.get());
         
-        return payeeRepository.save(payee);
+        Payee saved = payeeRepository.save(payee);
+        changeLogService.record(userId, ChangeLogService.PAYEE, saved.getId(), false);
+        return saved;
     }
     
+    @Transactional
     public boolean deletePayee(Long payeeId, Long userId) {
         if (payeeId == null || userId == null) {
             return false;
@@ -71,48 +79,36 @@ public class BillPaymentService {
         }
         
         payeeRepository.delete(payee);
+        changeLogService.record(userId, ChangeLogService.PAYEE, payeeId, true);
         return true;
     }
     
-    @Transactional
+    // Only the database path runs in a transaction; see TransferService.transfer
     public boolean processBillPayment(Long accountId, Long payeeId, BigDecimal amount, String memo, Long userId) {
         if (accountId == null || payeeId == null || userId == null) {
             return false;
         }
-        Optional<Account> accountOpt = accountRepository.findById(accountId);
         Optional<Payee> payeeOpt = payeeRepository.findById(payeeId);
-        
-        if (accountOpt.isEmpty() || payeeOpt.isEmpty()) {
+        if (payeeOpt.isEmpty() || !payeeOpt.get().getUser().getId().equals(userId)) {
             return false;
         }
-        
-        Account account = accountOpt.get();
         Payee payee = payeeOpt.get();
         
-        // Verify ownership
-        if (!account.getUser().getId().equals(userId) || !payee.getUser().getId().equals(userId)) {
-            return false;
-        }
-        
-        // Check sufficient balance
-        if (account.getBalance().compareTo(amount) < 0) {
-            return false;
+        if (ledgerEngine != null) {
+            String description = memo != null ? memo : "Bill payment to " + payee.getName();
+            return ledgerEngine.submit(userId, List.of(new Leg(accountId, null, amount, description)), true).get(0) == null;
         }
         
-        // Process payment
-        account.setBalance(account.getBalance().subtract(amount));
-        accountRepository.save(account);
-        
-        // Create transaction
-        Transaction transaction = new Transaction();
-        transaction.setType("DEBIT");
-        transaction.setAmount(amount);
-        transaction.setDescription(memo != null ? memo : "Bill payment to " + payee.getName());
-        transaction.setDate(LocalDateTime.now());
-        transaction.setAccount(account);
-        transactionRepository.save(transaction);
-        
-        return true;
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            // Account ownership, funds and the debit are checked by one conditional UPDATE
+            if (!ledgerService.debit(accountId, userId, amount)) {
+                return false;
+            }
+            
+            ledgerService.record(accountId, "DEBIT", amount, memo != null ? memo : "Bill payment to " + payee.getName());
+            
+            return true;
+        }));
     }
 }
 
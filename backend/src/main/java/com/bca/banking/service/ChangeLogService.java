@@ -0,0 +1,156 @@
+package com.bca.banking.service;
+
+import com.bca.banking.event.PostedTransaction;
+import com.bca.banking.event.TransactionPostedEvent;
+import com.bca.banking.model.ChangeLogEntry;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Write side of delta sync. Services record which of a user's accounts, transactions and payees changed; the
+// entries are buffered per transaction and written just before it commits, with sequences drawn from the
+// change_log_seq database sequence, so every node writing the change log hands out distinct, increasing values
+// and gaps left by rollbacks are harmless. Transactions can become visible out of sequence order. safeCursor()
+// never passes the committed maximum nor a sequence this node is still writing, so a client that has seen
+// sequence N has seen every change up to N. Another node's transaction can still commit below a cursor already
+// served, but only in the few milliseconds between drawing its sequence and committing.
+@Service
+public class ChangeLogService {
+    
+    public static final String ACCOUNT = "ACCOUNT";
+    public static final String TRANSACTION = "TRANSACTION";
+    public static final String PAYEE = "PAYEE";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private AccountService accountService;
+    
+    @PersistenceContext
+    private EntityManager entityManager;
+    
+    // Highest sequence this node has drawn, and for each transaction still writing, a floor below every sequence
+    // it draws (with how many transactions share it); both guarded by this
+    private long lastDrawn;
+    private final TreeMap<Long, Integer> inFlight = new TreeMap<>();
+    
+    @PostConstruct
+    void init() {
+        lastDrawn = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(sequence), 0) FROM change_log", Long.class);
+    }
+    
+    // Highest sequence up to which every change log entry is either committed or never will be. The committed
+    // maximum is read before the floors: a transaction that registers its floor afterwards draws above it.
+    public long safeCursor() {
+        long committed = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(sequence), 0) FROM change_log", Long.class);
+        synchronized (this) {
+            // Whoever drew it, every value drawn from now on is above it
+            lastDrawn = Math.max(lastDrawn, committed);
+            return inFlight.isEmpty() ? committed : Math.min(committed, inFlight.firstKey() - 1);
+        }
+    }
+    
+    // Registered before any value is drawn; the sequence only grows, so every value drawn afterwards is above it
+    private synchronized long reserve() {
+        long floor = lastDrawn + 1;
+        inFlight.merge(floor, 1, Integer::sum);
+        return floor;
+    }
+    
+    private synchronized void drawn(long sequence) {
+        lastDrawn = Math.max(lastDrawn, sequence);
+    }
+    
+    private synchronized void release(long floor) {
+        inFlight.computeIfPresent(floor, (key, count) -> count > 1 ? count - 1 : null);
+    }
+    
+    // Must be called inside the transaction making the change; a later record for the same entity replaces
+    // an earlier one, so a payee added and deleted in one transaction is logged once, as deleted
+    public void record(Long userId, String entityType, Long entityId, boolean deleted) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Changes can only be recorded inside a transaction");
+        }
+        PendingChanges pending = (PendingChanges) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingChanges();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        Change change = new Change(userId, entityType, entityId);
+        pending.changes.remove(change);
+        pending.changes.put(change, deleted);
+    }
+    
+    // A posting changes the transaction list and the balance of the account it hit
+    @EventListener
+    public void onTransactionPosted(TransactionPostedEvent event) {
+        for (PostedTransaction transaction : event.transactions()) {
+            accountService.getOwnerId(transaction.accountId()).ifPresent(userId -> {
+                record(userId, TRANSACTION, transaction.id(), false);
+                record(userId, ACCOUNT, transaction.accountId(), false);
+            });
+        }
+    }
+    
+    private void write(Map<Change, Boolean> changes) {
+        List<Object[]> rows = new ArrayList<>(changes.size());
+        for (Map.Entry<Change, Boolean> change : changes.entrySet()) {
+            Change key = change.getKey();
+            long sequence = nextSequence();
+            drawn(sequence);
+            rows.add(new Object[]{sequence, key.userId(), key.entityType(), key.entityId(), change.getValue()});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO change_log (sequence, user_id, entity_type, entity_id, deleted) "
+                + "VALUES (?, ?, ?, ?, ?)", rows);
+    }
+    
+    // Drawn through ChangeLogEntry's own generator, with the dialect's sequence syntax
+    private long nextSequence() {
+        SharedSessionContractImplementor session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        BeforeExecutionGenerator generator = (BeforeExecutionGenerator) session.getFactory().getMappingMetamodel()
+                .getEntityDescriptor(ChangeLogEntry.class).getGenerator();
+        return (Long) generator.generate(session, null, null, EventType.INSERT);
+    }
+    
+    private record Change(Long userId, String entityType, Long entityId) {
+    }
+    
+    private final class PendingChanges implements TransactionSynchronization {
+        private final Map<Change, Boolean> changes = new LinkedHashMap<>();
+        private Long floor;
+        
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            if (!changes.isEmpty()) {
+                floor = reserve();
+                write(changes);
+            }
+        }
+        
+        // Runs once the commit or rollback is complete, so the sequences are final before the cursor passes them
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResource(ChangeLogService.this);
+            if (floor != null) {
+                release(floor);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.bca.banking.service;
+
+import com.bca.banking.dto.AccountView;
+import com.bca.banking.dto.Dashboard;
+import com.bca.banking.dto.PayeeView;
+import com.bca.banking.dto.UserProfile;
+import com.bca.banking.event.PostedTransaction;
+import com.bca.banking.repository.AccountRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Loads the home screen's sections (profile, accounts, recent transactions, payees) concurrently on a bounded pool,
+// so the response takes as long as the slowest section rather than the sum of all four. Each section gets
+// sectionTimeoutMillis; one that fails, times out or finds the pool full is reported as unavailable instead of
+// failing the whole dashboard.
+@Service
+public class DashboardService {
+    
+    public static final String PROFILE = "profile";
+    public static final String ACCOUNTS = "accounts";
+    public static final String RECENT_TRANSACTIONS = "recentTransactions";
+    public static final String PAYEES = "payees";
+    
+    private static final Logger logger = LoggerFactory.getLogger(DashboardService.class);
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private AccountService accountService;
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private TransactionService transactionService;
+    
+    @Autowired
+    private BillPaymentService billPaymentService;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    // Each section holds a database connection while it runs
+    @Value("${banking.dashboard.threads:8}")
+    private int threads;
+    
+    @Value("${banking.dashboard.queue-capacity:256}")
+    private int queueCapacity;
+    
+    @Value("${banking.dashboard.section-timeout-ms:2000}")
+    private long sectionTimeoutMillis;
+    
+    private ThreadPoolExecutor executor;
+    
+    @PostConstruct
+    void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "dashboard-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        Gauge.builder("dashboard.queue.depth", executor, e -> e.getQueue().size()).register(meterRegistry);
+    }
+    
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    public CompletableFuture<Dashboard> load(Long userId, int transactionLimit) {
+        CompletableFuture<UserProfile> profile = section(PROFILE,
+                () -> userService.getUserById(userId).map(UserProfile::from).orElse(null));
+        CompletableFuture<List<AccountView>> accounts = section(ACCOUNTS,
+                () -> accountService.getAccountsByUserId(userId));
+        CompletableFuture<List<PostedTransaction>> recentTransactions = section(RECENT_TRANSACTIONS,
+                () -> transactionService.getRecentTransactions(accountRepository.findIdsByUserId(userId), transactionLimit));
+        CompletableFuture<List<PayeeView>> payees = section(PAYEES,
+                () -> billPaymentService.getPayeesByUserId(userId).stream().map(PayeeView::from).toList());
+        
+        return CompletableFuture.allOf(profile, accounts, recentTransactions, payees).thenApply(done -> {
+            List<String> unavailable = new ArrayList<>();
+            addIfMissing(unavailable, PROFILE, profile);
+            addIfMissing(unavailable, ACCOUNTS, accounts);
+            addIfMissing(unavailable, RECENT_TRANSACTIONS, recentTransactions);
+            addIfMissing(unavailable, PAYEES, payees);
+            return new Dashboard(profile.join(), accounts.join(), recentTransactions.join(), payees.join(),
+                    unavailable.isEmpty() ? null : unavailable);
+        });
+    }
+    
+    // Completes with the section's value, or with null once it fails or its time is up; a query still running at that
+    // point finishes on its pool thread and its result is dropped
+    private <T> CompletableFuture<T> section(String name, Supplier<T> loader) {
+        CompletableFuture<T> future;
+        try {
+            future = CompletableFuture.supplyAsync(loader, executor);
+        } catch (RuntimeException e) {
+            logger.warn("Dashboard section {} rejected: {}", name, e.toString());
+            return CompletableFuture.completedFuture(null);
+        }
+        return future
+                .completeOnTimeout(null, sectionTimeoutMillis, TimeUnit.MILLISECONDS)
+                .exceptionally(e -> {
+                    logger.warn("Dashboard section {} failed", name, e);
+                    return null;
+                });
+    }
+    
+    private void addIfMissing(List<String> unavailable, String name, CompletableFuture<?> section) {
+        if (section.join() == null) {
+            unavailable.add(name);
+            meterRegistry.counter("dashboard.sections.unavailable", "section", name).increment();
+        }
+    }
+}
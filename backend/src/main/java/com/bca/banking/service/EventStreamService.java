@@ -0,0 +1,382 @@
+package com.bca.banking.service;
+
+import com.bca.banking.event.BalanceChanged;
+import com.bca.banking.event.PostedTransaction;
+import com.bca.banking.event.TokensRevokedEvent;
+import com.bca.banking.event.TransactionPostedEvent;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.security.TokenRevocationService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Server-sent events for connected clients: "transaction-posted" and "balance-changed" after a posting commits.
+// An open stream is only an async request, so idle clients hold no thread. Sends go through a small dispatch pool,
+// one drain at a time per subscriber, from a bounded per-subscriber queue. A client too slow to keep up has its
+// backlog dropped and gets a single "resync" event instead, telling it to catch up through /api/sync. A client that
+// stops reading entirely blocks its send in the container until the write timeout, and neither an interrupt nor
+// completing the emitter (which waits for the send) frees that thread sooner. So a send that takes longer than
+// banking.events.send-timeout-ms gets its subscriber evicted and its thread written off: the pool grows by one
+// while the thread is stuck, so the other subscribers always have dispatch-threads senders, and shrinks back once
+// the container fails (or finally completes) the send.
+// A stream lives no longer than the access token that opened it, and is closed as soon as that token is revoked:
+// at once for revocations made on this node, and at the next heartbeat for ones picked up from other nodes.
+@Service
+public class EventStreamService {
+    
+    @Autowired
+    private AccountService accountService;
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+    
+    @Value("${banking.events.timeout-ms:3600000}")
+    private long timeoutMillis;
+    
+    @Value("${banking.events.max-per-user:5}")
+    private int maxPerUser;
+    
+    @Value("${banking.events.queue-capacity:64}")
+    private int queueCapacity;
+    
+    @Value("${banking.events.dispatch-threads:4}")
+    private int dispatchThreads;
+    
+    @Value("${banking.events.send-timeout-ms:2000}")
+    private long sendTimeoutMillis;
+    
+    private final ConcurrentHashMap<Long, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private ThreadPoolExecutor dispatcher;
+    // Dispatch threads stuck in the send of an evicted subscriber
+    private int writtenOff;
+    private Counter droppedCounter;
+    private Counter evictedCounter;
+    
+    @PostConstruct
+    void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        dispatcher = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "sse-dispatch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("events.subscribers", subscriberCount, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("events.dispatch.queue", dispatcher, e -> e.getQueue().size()).register(meterRegistry);
+        droppedCounter = Counter.builder("events.dropped").register(meterRegistry);
+        evictedCounter = Counter.builder("events.evicted").register(meterRegistry);
+    }
+    
+    @PreDestroy
+    void shutdown() {
+        dispatcher.shutdownNow();
+        subscribers.values().forEach(list -> list.forEach(this::close));
+    }
+    
+    public SseEmitter subscribe(BankingPrincipal principal) {
+        Long userId = principal.userId();
+        long tokenLeft = Duration.between(Instant.now(), principal.expiresAt()).toMillis();
+        SseEmitter emitter = new SseEmitter(Math.max(1, Math.min(timeoutMillis, tokenLeft)));
+        Subscriber subscriber = new Subscriber(principal, emitter);
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        // Sent on the request thread, before other threads can reach the emitter: MVC holds it until the response is
+        // set up and flushes it with the headers, so the client (and any proxy) sees the stream open straight away
+        try {
+            emitter.send(SseEmitter.event().comment("connected"));
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+            return emitter;
+        }
+        
+        // Added inside compute so a concurrent remove() cannot drop the list between lookup and add
+        List<Subscriber> own = subscribers.compute(userId, (id, current) -> {
+            List<Subscriber> list = current != null ? current : new CopyOnWriteArrayList<>();
+            list.add(subscriber);
+            return list;
+        });
+        subscriberCount.incrementAndGet();
+        // Oldest streams give way, so a client that leaks connections cannot pin more than maxPerUser
+        while (own.size() > maxPerUser) {
+            close(own.get(0));
+        }
+        return emitter;
+    }
+    
+    // After commit, so clients never hear about a posting that rolled back
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTransactionPosted(TransactionPostedEvent event) {
+        Map<Long, List<PostedTransaction>> byUser = new LinkedHashMap<>();
+        for (PostedTransaction transaction : event.transactions()) {
+            Long userId = accountService.getCachedOwnerId(transaction.accountId());
+            if (userId == null) {
+                userId = accountService.getOwnerId(transaction.accountId()).orElse(null);
+            }
+            if (userId != null && subscribers.containsKey(userId)) {
+                byUser.computeIfAbsent(userId, id -> new ArrayList<>()).add(transaction);
+            }
+        }
+        if (byUser.isEmpty()) {
+            return;
+        }
+        
+        Set<Long> accountIds = new LinkedHashSet<>();
+        byUser.values().forEach(list -> list.forEach(transaction -> accountIds.add(transaction.accountId())));
+        // A fresh query: this runs after commit with the posting's persistence context still bound, and an account
+        // loaded there would report the balance slots as they were when it was read
+        Map<Long, BalanceChanged> balances = new LinkedHashMap<>();
+        accountRepository.findBalancesByIdIn(accountIds).forEach(balance -> balances.put(balance.accountId(), balance));
+        
+        byUser.forEach((userId, transactions) -> {
+            List<StreamEvent> events = new ArrayList<>();
+            Set<Long> touched = new LinkedHashSet<>();
+            for (PostedTransaction transaction : transactions) {
+                events.add(new StreamEvent("transaction-posted", Long.toString(transaction.id()), transaction, null));
+                touched.add(transaction.accountId());
+            }
+            for (Long accountId : touched) {
+                BalanceChanged balance = balances.get(accountId);
+                if (balance != null) {
+                    events.add(new StreamEvent("balance-changed", null, balance, null));
+                }
+            }
+            for (Subscriber subscriber : subscribers.getOrDefault(userId, List.of())) {
+                events.forEach(e -> enqueue(subscriber, e));
+            }
+        });
+    }
+    
+    @EventListener
+    public void onTokensRevoked(TokensRevokedEvent event) {
+        for (Subscriber subscriber : subscribers.getOrDefault(event.userId(), List.of())) {
+            if (event.tokenId() == null || event.tokenId().equals(subscriber.principal.tokenId())) {
+                close(subscriber);
+            }
+        }
+    }
+    
+    // Keeps idle streams open through proxies and finds clients that went away without closing. Also closes
+    // streams whose token was revoked on another node since the last beat.
+    @Scheduled(fixedDelayString = "${banking.events.heartbeat-ms:15000}")
+    public void heartbeat() {
+        for (List<Subscriber> own : subscribers.values()) {
+            for (Subscriber subscriber : own) {
+                if (tokenRevocationService.isRevoked(subscriber.principal)) {
+                    close(subscriber);
+                    continue;
+                }
+                synchronized (subscriber) {
+                    if (!subscriber.queue.isEmpty()) {
+                        continue;
+                    }
+                }
+                enqueue(subscriber, StreamEvent.comment("heartbeat"));
+            }
+        }
+    }
+    
+    // Evicts subscribers whose send has been blocked for longer than the send timeout; see the class comment
+    @Scheduled(fixedDelayString = "${banking.events.send-timeout-ms:2000}")
+    public void evictStalled() {
+        long now = System.nanoTime();
+        for (List<Subscriber> own : subscribers.values()) {
+            for (Subscriber subscriber : own) {
+                synchronized (subscriber) {
+                    if (!subscriber.sending || subscriber.writtenOff
+                            || now - subscriber.sendStarted < TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis)) {
+                        continue;
+                    }
+                    subscriber.writtenOff = true;
+                }
+                evictedCounter.increment();
+                resizeDispatcher(1);
+                close(subscriber);
+            }
+        }
+    }
+    
+    public int subscriberCount() {
+        return subscriberCount.get();
+    }
+    
+    private void enqueue(Subscriber subscriber, StreamEvent event) {
+        synchronized (subscriber) {
+            if (subscriber.closed) {
+                return;
+            }
+            if (subscriber.queue.size() >= queueCapacity) {
+                droppedCounter.increment(subscriber.queue.size());
+                subscriber.queue.clear();
+                subscriber.queue.add(new StreamEvent("resync", null, Map.of("message", "Events were dropped"), null));
+            } else {
+                subscriber.queue.add(event);
+            }
+            if (subscriber.draining) {
+                return;
+            }
+            subscriber.draining = true;
+        }
+        dispatcher.execute(() -> drain(subscriber));
+    }
+    
+    private void drain(Subscriber subscriber) {
+        while (true) {
+            StreamEvent next;
+            synchronized (subscriber) {
+                next = subscriber.closed ? null : subscriber.queue.poll();
+                if (next == null) {
+                    subscriber.draining = false;
+                    if (subscriber.closed) {
+                        // Closed while this drain was queued or sending, so completing the emitter was left to it
+                        break;
+                    }
+                    return;
+                }
+                subscriber.sending = true;
+                subscriber.sendStarted = System.nanoTime();
+            }
+            Exception failure = null;
+            try {
+                subscriber.emitter.send(next.toBuilder());
+            } catch (IOException | IllegalStateException e) {
+                failure = e;
+            }
+            boolean writtenOff;
+            synchronized (subscriber) {
+                subscriber.sending = false;
+                writtenOff = subscriber.writtenOff;
+            }
+            if (writtenOff) {
+                resizeDispatcher(-1);
+            }
+            if (failure != null) {
+                // Client gone or stream already completed
+                remove(subscriber);
+                synchronized (subscriber) {
+                    subscriber.draining = false;
+                }
+                subscriber.emitter.completeWithError(failure);
+                return;
+            }
+        }
+        subscriber.emitter.complete();
+    }
+    
+    // Grows the pool while dispatch threads are stuck in an evicted subscriber's send, and shrinks it back after.
+    // Raising the maximum before the core size and lowering it after keeps core <= maximum at every step.
+    private synchronized void resizeDispatcher(int delta) {
+        writtenOff += delta;
+        int size = dispatchThreads + writtenOff;
+        if (delta > 0) {
+            dispatcher.setMaximumPoolSize(size);
+            dispatcher.setCorePoolSize(size);
+        } else {
+            dispatcher.setCorePoolSize(size);
+            dispatcher.setMaximumPoolSize(size);
+        }
+    }
+    
+    // Completing the emitter waits for a send in progress, so while one is draining the drain completes it instead
+    private void close(Subscriber subscriber) {
+        synchronized (subscriber) {
+            remove(subscriber);
+            if (subscriber.draining) {
+                return;
+            }
+        }
+        subscriber.emitter.complete();
+    }
+    
+    private void remove(Subscriber subscriber) {
+        synchronized (subscriber) {
+            if (subscriber.closed) {
+                return;
+            }
+            subscriber.closed = true;
+            subscriber.queue.clear();
+        }
+        subscriberCount.decrementAndGet();
+        subscribers.computeIfPresent(subscriber.principal.userId(), (id, own) -> {
+            own.remove(subscriber);
+            return own.isEmpty() ? null : own;
+        });
+    }
+    
+    // Queued instead of SseEventBuilder, which is single use: one event usually goes to several of a user's streams
+    private record StreamEvent(String name, String id, Object data, String comment) {
+        
+        private static StreamEvent comment(String text) {
+            return new StreamEvent(null, null, null, text);
+        }
+        
+        private SseEventBuilder toBuilder() {
+            SseEventBuilder builder = SseEmitter.event();
+            if (comment != null) {
+                builder.comment(comment);
+            }
+            if (name != null) {
+                builder.name(name);
+            }
+            if (id != null) {
+                builder.id(id);
+            }
+            if (data != null) {
+                builder.data(data);
+            }
+            return builder;
+        }
+    }
+    
+    private static final class Subscriber {
+        private final BankingPrincipal principal;
+        private final SseEmitter emitter;
+        private final Queue<StreamEvent> queue = new ArrayDeque<>();
+        private boolean draining;
+        private boolean closed;
+        private boolean sending;
+        private long sendStarted;
+        private boolean writtenOff;
+        
+        private Subscriber(BankingPrincipal principal, SseEmitter emitter) {
+            this.principal = principal;
+            this.emitter = emitter;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.bca.banking.service;
+
+import com.bca.banking.model.Account;
+import com.bca.banking.model.AccountBalanceSlot;
+import com.bca.banking.repository.AccountBalanceSlotRepository;
+import com.bca.banking.repository.AccountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Opt-in sharding for accounts that see many concurrent movements (payroll sources, bill collectors).
+// A hot account's balance is spread over N rows in account_balance_slots: credits land on a random slot and
+// debits take from any slot holding enough, so concurrent writers rarely wait on the same row lock.
+// Readers are unaffected because Account.getBalance() includes the slots.
+@Service
+public class HotAccountService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(HotAccountService.class);
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private AccountBalanceSlotRepository slotRepository;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Value("${banking.hot-accounts.account-numbers:}")
+    private String[] hotAccountNumbers;
+    
+    @Value("${banking.hot-accounts.slots:16}")
+    private int defaultSlots;
+    
+    private final ConcurrentHashMap<Long, HotAccount> hotAccounts = new ConcurrentHashMap<>();
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void enableConfiguredAccounts() {
+        for (String accountNumber : hotAccountNumbers) {
+            if (accountNumber.isBlank()) {
+                continue;
+            }
+            Optional<Account> account = accountRepository.findByAccountNumber(accountNumber.trim());
+            if (account.isEmpty()) {
+                logger.warn("Hot account {} not found, leaving it unsharded", accountNumber);
+                continue;
+            }
+            enable(account.get().getId(), defaultSlots);
+        }
+    }
+    
+    // Moves the account's balance into slot 0 of a fresh set of slots. No-op for an already hot account.
+    public void enable(Long accountId, int slots) {
+        if (slots < 2) {
+            throw new IllegalArgumentException("A hot account needs at least 2 slots");
+        }
+        HotAccount hot = transactionTemplate.execute(status -> {
+            Account account = accountRepository.findAllByIdForUpdate(List.of(accountId)).stream()
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Account " + accountId + " not found"));
+            if (account.getBalanceSlots() == 0) {
+                List<AccountBalanceSlot> rows = new ArrayList<>(slots);
+                for (int slot = 0; slot < slots; slot++) {
+                    rows.add(new AccountBalanceSlot(null, accountId, slot, slot == 0 ? account.getBalance() : BigDecimal.ZERO));
+                }
+                slotRepository.saveAll(rows);
+                account.setBalance(BigDecimal.ZERO);
+                account.setBalanceSlots(slots);
+            }
+            return new HotAccount(account.getUser().getId(), account.getBalanceSlots());
+        });
+        hotAccounts.put(accountId, hot);
+        logger.info("Account {} is hot with {} balance slots", accountId, hot.slots());
+    }
+    
+    // Cached description of a known hot account, without touching the database
+    public HotAccount find(Long accountId) {
+        return hotAccounts.get(accountId);
+    }
+    
+    // Hot account description loaded from the database, or null for a normal or missing account
+    public HotAccount load(Long accountId) {
+        HotAccount cached = hotAccounts.get(accountId);
+        if (cached != null) {
+            return cached;
+        }
+        return accountRepository.findById(accountId)
+                .filter(account -> account.getBalanceSlots() > 0)
+                .map(account -> {
+                    HotAccount hot = new HotAccount(account.getUser().getId(), account.getBalanceSlots());
+                    hotAccounts.put(accountId, hot);
+                    return hot;
+                })
+                .orElse(null);
+    }
+    
+    public void credit(Long accountId, HotAccount hot, BigDecimal amount) {
+        HeldSlots held = heldSlots();
+        Integer slot = held != null ? held.slots.get(accountId) : null;
+        if (slot == null) {
+            slot = ThreadLocalRandom.current().nextInt(hot.slots());
+        }
+        slotRepository.credit(accountId, slot, amount);
+        hold(held, accountId, slot);
+    }
+    
+    // A transaction holds at most one slot of a hot account, except in the fallback below, which takes them all in
+    // ascending slot order. A transaction that already holds a slot of this account only tries that one; otherwise
+    // each attempt is one conditional UPDATE of one slot and the first that succeeds ends the scan, so the scan can
+    // start anywhere. Two debits can then never hold slots of the account and wait on each other in opposite orders.
+    public boolean debit(Long accountId, HotAccount hot, BigDecimal amount) {
+        HeldSlots held = heldSlots();
+        Integer holding = held != null ? held.slots.get(accountId) : null;
+        if (holding != null) {
+            if (slotRepository.debit(accountId, holding, amount) == 1) {
+                return true;
+            }
+        } else {
+            int start = ThreadLocalRandom.current().nextInt(hot.slots());
+            for (int i = 0; i < hot.slots(); i++) {
+                int slot = (start + i) % hot.slots();
+                if (slotRepository.debit(accountId, slot, amount) == 1) {
+                    hold(held, accountId, slot);
+                    return true;
+                }
+            }
+        }
+        
+        // No single slot covers the amount: lock all slots in ascending slot order and drain them. The scan above
+        // left nothing locked, and callers change each hot account once per transaction, so this starts from no
+        // held slot of the account and waits only in slot order
+        List<AccountBalanceSlot> slots = slotRepository.findByAccountIdForUpdate(accountId);
+        BigDecimal available = slots.stream().map(AccountBalanceSlot::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+        if (available.compareTo(amount) < 0) {
+            return false;
+        }
+        BigDecimal remaining = amount;
+        for (AccountBalanceSlot slot : slots) {
+            BigDecimal taken = slot.getBalance().min(remaining);
+            if (taken.signum() > 0) {
+                slot.setBalance(slot.getBalance().subtract(taken));
+                remaining = remaining.subtract(taken);
+            }
+        }
+        return true;
+    }
+    
+    // Slots locked by the current transaction, or null outside one
+    private HeldSlots heldSlots() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        HeldSlots held = (HeldSlots) TransactionSynchronizationManager.getResource(this);
+        if (held == null) {
+            held = new HeldSlots();
+            TransactionSynchronizationManager.bindResource(this, held);
+            TransactionSynchronizationManager.registerSynchronization(held);
+        }
+        return held;
+    }
+    
+    private static void hold(HeldSlots held, Long accountId, int slot) {
+        if (held != null) {
+            held.slots.putIfAbsent(accountId, slot);
+        }
+    }
+    
+    public record HotAccount(Long userId, int slots) {
+    }
+    
+    private final class HeldSlots implements TransactionSynchronization {
+        private final Map<Long, Integer> slots = new HashMap<>();
+        
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResource(HotAccountService.this);
+        }
+    }
+}
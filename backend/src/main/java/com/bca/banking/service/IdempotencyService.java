@@ -0,0 +1,336 @@
+package com.bca.banking.service;
+
+import com.bca.banking.ledger.LedgerEngine;
+import com.bca.banking.model.IdempotencyRecord;
+import com.bca.banking.repository.IdempotencyRecordRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Replay protection for money-moving POSTs carrying an Idempotency-Key header.
+// Lookup order: a bounded in-memory cache of recent responses, then the idempotency_keys table.
+// Concurrent duplicates on this node wait for the first request (single flight); a duplicate arriving on
+// another node while the original is still running gets 409. The stored response is written in the same
+// transaction as the money movement, so a key is never recorded for a payment that did not commit.
+// With the ledger engine on, a movement commits to the engine's journal rather than to that transaction, so the
+// response is stored afterwards in a transaction of its own. If that fails, or the node dies before it, the
+// reservation stays behind with an "outcome unknown" answer: a retry must not move the money a second time.
+// An action may let a PessimisticLockingFailureException escape. The transaction it ran in is then rolled back and
+// run again from the start, up to lock-retries times, since only this outermost boundary can undo a failed attempt;
+// a conflict that outlasts the retries is answered with 503.
+@Service
+public class IdempotencyService {
+    
+    public static final String HEADER = "Idempotency-Key";
+    
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+    
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired(required = false)
+    private LedgerEngine ledgerEngine;
+    
+    @Value("${banking.idempotency.ttl-ms:86400000}")
+    private long ttlMillis;
+    
+    @Value("${banking.idempotency.cache-size:10000}")
+    private int cacheSize;
+    
+    @Value("${banking.idempotency.in-progress-timeout-ms:60000}")
+    private long inProgressTimeoutMillis;
+    
+    @Value("${banking.transfers.lock-retries:3}")
+    private int lockRetries;
+    
+    private Map<String, StoredResponse> recentResponses;
+    private final ConcurrentHashMap<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    void init() {
+        recentResponses = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredResponse> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+    
+    public ResponseEntity<?> execute(Long userId, String key, String operation, Object request,
+                                     Supplier<ResponseEntity<?>> action) {
+        if (key == null) {
+            try {
+                return action.get();
+            } catch (PessimisticLockingFailureException e) {
+                return busy();
+            }
+        }
+        if (key.isBlank() || key.length() > 255) {
+            return ResponseEntity.status(400).body(Map.of("message", "Invalid " + HEADER + " header"));
+        }
+        
+        String requestHash = hash(operation, request);
+        String cacheKey = userId + ":" + key;
+        
+        StoredResponse cached = recentResponses.get(cacheKey);
+        if (cached != null && !isExpired(cached.createdAt())) {
+            return replay(cached, requestHash);
+        }
+        
+        CompletableFuture<StoredResponse> flight = new CompletableFuture<>();
+        CompletableFuture<StoredResponse> leader = inFlight.putIfAbsent(cacheKey, flight);
+        if (leader != null) {
+            return awaitLeader(leader, requestHash);
+        }
+        
+        try {
+            Outcome outcome = executeOnce(userId, key, cacheKey, requestHash, action);
+            flight.complete(outcome.stored());
+            return outcome.response();
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(cacheKey, flight);
+        }
+    }
+    
+    private Outcome executeOnce(Long userId, String key, String cacheKey, String requestHash,
+                                Supplier<ResponseEntity<?>> action) {
+        Optional<IdempotencyRecord> existing = idempotencyRecordRepository.findByUserIdAndIdempotencyKey(userId, key);
+        if (existing.isPresent()) {
+            IdempotencyRecord record = existing.get();
+            if (record.getResponseStatus() != null) {
+                StoredResponse stored = new StoredResponse(record.getRequestHash(), record.getResponseStatus(),
+                        record.getResponseBody(), record.getCreatedAt());
+                recentResponses.put(cacheKey, stored);
+                return new Outcome(replay(stored, requestHash), stored);
+            }
+            if (record.getCreatedAt().isAfter(LocalDateTime.now().minus(Duration.ofMillis(inProgressTimeoutMillis)))) {
+                return new Outcome(inProgress(), null);
+            }
+            if (ledgerEngine != null) {
+                // Abandoned, but the engine may have applied the movement before the node died
+                StoredResponse unknown = outcomeUnknown(record.getRequestHash(), record.getCreatedAt());
+                recentResponses.put(cacheKey, unknown);
+                return new Outcome(replay(unknown, requestHash), unknown);
+            }
+            // Abandoned by a node that died mid-request; its payment transaction never committed
+            idempotencyRecordRepository.delete(record);
+        }
+        
+        IdempotencyRecord reservation;
+        try {
+            reservation = idempotencyRecordRepository.saveAndFlush(
+                    new IdempotencyRecord(null, userId, key, requestHash, null, null, LocalDateTime.now()));
+        } catch (DataIntegrityViolationException e) {
+            // Another node reserved the key between our lookup and insert
+            return new Outcome(inProgress(), null);
+        }
+        
+        if (ledgerEngine != null) {
+            return executeOnEngine(cacheKey, requestHash, reservation, action);
+        }
+        
+        ResponseEntity<?> response;
+        try {
+            response = executeWithRetry(status -> {
+                ResponseEntity<?> result = action.get();
+                if (result.getStatusCode().is5xxServerError()) {
+                    // Nothing is recorded for server errors, so the client may retry with the same key
+                    status.setRollbackOnly();
+                    return result;
+                }
+                reservation.setResponseStatus(result.getStatusCode().value());
+                reservation.setResponseBody(toJson(result.getBody()));
+                idempotencyRecordRepository.save(reservation);
+                return result;
+            });
+        } catch (PessimisticLockingFailureException e) {
+            idempotencyRecordRepository.deleteById(reservation.getId());
+            return new Outcome(busy(), null);
+        } catch (RuntimeException e) {
+            idempotencyRecordRepository.deleteById(reservation.getId());
+            throw e;
+        }
+        
+        if (response.getStatusCode().is5xxServerError()) {
+            idempotencyRecordRepository.deleteById(reservation.getId());
+            return new Outcome(response, null);
+        }
+        
+        StoredResponse stored = new StoredResponse(requestHash, response.getStatusCode().value(),
+                reservation.getResponseBody(), reservation.getCreatedAt());
+        recentResponses.put(cacheKey, stored);
+        return new Outcome(response, stored);
+    }
+    
+    private <T> T executeWithRetry(TransactionCallback<T> callback) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(callback);
+            } catch (PessimisticLockingFailureException e) {
+                if (attempt > lockRetries) {
+                    throw e;
+                }
+                logger.debug("Idempotent request lost a lock conflict, retrying (attempt {})", attempt, e);
+            }
+        }
+    }
+    
+    private Outcome executeOnEngine(String cacheKey, String requestHash, IdempotencyRecord reservation,
+                                    Supplier<ResponseEntity<?>> action) {
+        ResponseEntity<?> response;
+        try {
+            response = action.get();
+        } catch (RuntimeException e) {
+            idempotencyRecordRepository.deleteById(reservation.getId());
+            throw e;
+        }
+        if (response.getStatusCode().is5xxServerError()) {
+            idempotencyRecordRepository.deleteById(reservation.getId());
+            return new Outcome(response, null);
+        }
+        
+        StoredResponse stored = new StoredResponse(requestHash, response.getStatusCode().value(),
+                toJson(response.getBody()), reservation.getCreatedAt());
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                reservation.setResponseStatus(stored.status());
+                reservation.setResponseBody(stored.body());
+                idempotencyRecordRepository.save(reservation);
+            });
+        } catch (RuntimeException e) {
+            // The movement stands whatever happens here, so the key must keep blocking retries
+            logger.error("Could not store the response for idempotency key {}; keeping it as outcome unknown",
+                    cacheKey, e);
+            StoredResponse unknown = outcomeUnknown(requestHash, reservation.getCreatedAt());
+            recentResponses.put(cacheKey, unknown);
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    reservation.setResponseStatus(unknown.status());
+                    reservation.setResponseBody(unknown.body());
+                    idempotencyRecordRepository.save(reservation);
+                });
+            } catch (RuntimeException again) {
+                // The bare reservation is left; once it is abandoned it reads as outcome unknown too
+                logger.warn("Could not mark idempotency key {} as outcome unknown", cacheKey, again);
+            }
+            return new Outcome(response, unknown);
+        }
+        recentResponses.put(cacheKey, stored);
+        return new Outcome(response, stored);
+    }
+    
+    private StoredResponse outcomeUnknown(String requestHash, LocalDateTime createdAt) {
+        return new StoredResponse(requestHash, 409, toJson(Map.of("message", "The outcome of the original request "
+                + "is unknown; check the account history instead of retrying")), createdAt);
+    }
+    
+    private ResponseEntity<?> awaitLeader(CompletableFuture<StoredResponse> leader, String requestHash) {
+        try {
+            StoredResponse stored = leader.get(inProgressTimeoutMillis, TimeUnit.MILLISECONDS);
+            return stored != null ? replay(stored, requestHash) : inProgress();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return inProgress();
+        } catch (Exception e) {
+            return inProgress();
+        }
+    }
+    
+    private ResponseEntity<?> replay(StoredResponse stored, String requestHash) {
+        if (!stored.requestHash().equals(requestHash)) {
+            return ResponseEntity.status(422).body(Map.of("message", HEADER + " was already used for a different request"));
+        }
+        try {
+            return ResponseEntity.status(stored.status())
+                    .header("Idempotent-Replayed", "true")
+                    .body(stored.body() != null ? objectMapper.readTree(stored.body()) : null);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored idempotent response is not valid JSON", e);
+        }
+    }
+    
+    private ResponseEntity<?> inProgress() {
+        return ResponseEntity.status(409)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Map.of("message", "A request with this " + HEADER + " is still being processed"));
+    }
+    
+    private ResponseEntity<?> busy() {
+        return ResponseEntity.status(503)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Map.of("message", "The accounts involved are busy; retry the request"));
+    }
+    
+    private boolean isExpired(LocalDateTime createdAt) {
+        return createdAt.isBefore(LocalDateTime.now().minus(Duration.ofMillis(ttlMillis)));
+    }
+    
+    private String toJson(Object body) {
+        try {
+            return objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Response body cannot be stored", e);
+        }
+    }
+    
+    private String hash(String operation, Object request) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(operation.getBytes(StandardCharsets.UTF_8));
+            sha256.update(objectMapper.writeValueAsBytes(request));
+            return HexFormat.of().formatHex(sha256.digest());
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("Cannot fingerprint request", e);
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${banking.idempotency.purge-interval-ms:3600000}")
+    public void purgeExpired() {
+        idempotencyRecordRepository.deleteCreatedBefore(LocalDateTime.now().minus(Duration.ofMillis(ttlMillis)));
+        synchronized (recentResponses) {
+            recentResponses.values().removeIf(stored -> isExpired(stored.createdAt()));
+        }
+    }
+    
+    private record StoredResponse(String requestHash, int status, String body, LocalDateTime createdAt) {
+    }
+    
+    private record Outcome(ResponseEntity<?> response, StoredResponse stored) {
+    }
+}
@@ -1,15 +1,15 @@
 package com.bca.banking.service;
 
+import com.bca.banking.ledger.LedgerEngine.Leg;
+import com.bca.banking.ledger.LedgerEngine;
 import com.bca.banking.model.Account;
-import com.bca.banking.model.Transaction;
 import com.bca.banking.repository.AccountRepository;
-import com.bca.banking.repository.TransactionRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
-import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 @Service
@@ -19,45 +19,36 @@ public class InteracService {
     private AccountRepository accountRepository;
     
     @Autowired
-    private TransactionRepository transactionRepository;
+    private LedgerService ledgerService;
     
-    @Transactional
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired(required = false)
+    private LedgerEngine ledgerEngine;
+    
+    // Only the database path runs in a transaction; see TransferService.transfer
     public boolean sendMoney(Long accountId, String recipientEmail, BigDecimal amount, String message, Long userId) {
         if (accountId == null || userId == null) {
             return false;
         }
         
-        Optional<Account> accountOpt = accountRepository.findById(accountId);
-        if (accountOpt.isEmpty()) {
-            return false;
+        if (ledgerEngine != null) {
+            String description = message != null ? message : "Interac e-Transfer to " + recipientEmail;
+            return ledgerEngine.submit(userId, List.of(new Leg(accountId, null, amount, description)), true).get(0) == null;
         }
         
-        Account account = accountOpt.get();
-        
-        // Verify ownership
-        if (!account.getUser().getId().equals(userId)) {
-            return false;
-        }
-        
-        // Check sufficient balance
-        if (account.getBalance().compareTo(amount) < 0) {
-            return false;
-        }
-        
-        // Process Interac e-Transfer (simulated)
-        account.setBalance(account.getBalance().subtract(amount));
-        accountRepository.save(account);
-        
-        // Create transaction
-        Transaction transaction = new Transaction();
-        transaction.setType("DEBIT");
-        transaction.setAmount(amount);
-        transaction.setDescription(message != null ? message : "Interac e-Transfer to " + recipientEmail);
-        transaction.setDate(LocalDateTime.now());
-        transaction.setAccount(account);
-        transactionRepository.save(transaction);
-        
-        return true;
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            // Ownership, funds and the debit are checked by one conditional UPDATE
+            if (!ledgerService.debit(accountId, userId, amount)) {
+                return false;
+            }
+            
+            // Process Interac e-Transfer (simulated)
+            ledgerService.record(accountId, "DEBIT", amount, message != null ? message : "Interac e-Transfer to " + recipientEmail);
+            
+            return true;
+        }));
     }
     
     public boolean requestMoney(Long accountId, String requestorEmail, BigDecimal amount, String message, Long userId) {
@@ -0,0 +1,163 @@
+package com.bca.banking.service;
+
+import com.bca.banking.event.PostedTransaction;
+import com.bca.banking.event.TransactionPostedEvent;
+import com.bca.banking.model.Account;
+import com.bca.banking.model.Transaction;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.TransactionRepository;
+import com.bca.banking.service.HotAccountService.HotAccount;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Single place where account balances change and ledger rows are written. Balance changes are conditional
+// UPDATEs, so ownership, funds and the mutation are checked atomically without loading the Account.
+// Callers own the surrounding transaction.
+@Service
+@Transactional(propagation = Propagation.MANDATORY)
+public class LedgerService {
+    
+    // allocationSize of users_seq, accounts_seq and transactions_seq
+    private static final int ID_BLOCK = 50;
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private TransactionRepository transactionRepository;
+    
+    @Autowired
+    private HotAccountService hotAccountService;
+    
+    @Autowired
+    private AccountService accountService;
+    
+    @PersistenceContext
+    private EntityManager entityManager;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    // False if the account does not exist, belongs to someone else or lacks funds
+    public boolean debit(Long accountId, Long userId, BigDecimal amount) {
+        boolean debited = applyDebit(accountId, userId, amount);
+        if (debited) {
+            accountService.evictAfterCommit(accountId);
+        }
+        return debited;
+    }
+    
+    // False if the account does not exist
+    public boolean credit(Long accountId, BigDecimal amount) {
+        boolean credited = applyCredit(accountId, amount);
+        if (credited) {
+            accountService.evictAfterCommit(accountId);
+        }
+        return credited;
+    }
+    
+    private boolean applyDebit(Long accountId, Long userId, BigDecimal amount) {
+        HotAccount hot = hotAccountService.find(accountId);
+        if (hot == null) {
+            if (accountRepository.debit(accountId, userId, amount) == 1) {
+                return true;
+            }
+            // Either a plain refusal or a hot account this node has not seen yet
+            hot = hotAccountService.load(accountId);
+            if (hot == null) {
+                return false;
+            }
+        }
+        return hot.userId().equals(userId) && hotAccountService.debit(accountId, hot, amount);
+    }
+    
+    private boolean applyCredit(Long accountId, BigDecimal amount) {
+        HotAccount hot = hotAccountService.find(accountId);
+        if (hot == null) {
+            if (accountRepository.credit(accountId, amount) == 1) {
+                return true;
+            }
+            hot = hotAccountService.load(accountId);
+            if (hot == null) {
+                return false;
+            }
+        }
+        hotAccountService.credit(accountId, hot, amount);
+        return true;
+    }
+    
+    public Transaction record(Long accountId, String type, BigDecimal amount, String description) {
+        Transaction transaction = new Transaction();
+        transaction.setType(type);
+        transaction.setAmount(amount);
+        transaction.setDescription(description);
+        transaction.setDate(LocalDateTime.now());
+        transaction.setAccount(accountRepository.getReferenceById(accountId));
+        Transaction saved = transactionRepository.save(transaction);
+        eventPublisher.publishEvent(new TransactionPostedEvent(List.of(new PostedTransaction(saved.getId(), accountId,
+                type, amount, description, saved.getDate()))));
+        return saved;
+    }
+    
+    // Many ledger rows at once; each row is {type, amount, description, date, accountId}. Ids come from the pooled
+    // transactions_seq (one sequence call per 50 rows) and the INSERTs go out in JDBC batches of
+    // hibernate.jdbc.batch_size at flush, so this works on any database Hibernate has a dialect for
+    public void recordBatch(List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<PostedTransaction> posted = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Transaction transaction = persist(row);
+            posted.add(new PostedTransaction(transaction.getId(), (Long) row[4], transaction.getType(),
+                    transaction.getAmount(), transaction.getDescription(), transaction.getDate()));
+        }
+        eventPublisher.publishEvent(new TransactionPostedEvent(posted));
+    }
+    
+    // After rows of entityClass were inserted with ids of their own (a ledger snapshot restore): makes sure no id up
+    // to maxId is handed out again. The pooled optimizer's cached block is used up first; if a block fresh from
+    // sequenceName is still not past maxId, the sequence is restarted beyond it (never moved back, so ids a lost row
+    // once had are not reused). ALTER SEQUENCE ... RESTART WITH is understood by H2, PostgreSQL and SQL Server.
+    public void skipIdsThrough(Class<?> entityClass, String sequenceName, long maxId) {
+        SharedSessionContractImplementor session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        BeforeExecutionGenerator generator = (BeforeExecutionGenerator) session.getFactory().getMappingMetamodel()
+                .getEntityDescriptor(entityClass).getGenerator();
+        for (int i = 0; i <= ID_BLOCK; i++) {
+            if ((Long) generator.generate(session, null, null, EventType.INSERT) > maxId) {
+                return;
+            }
+        }
+        entityManager.createNativeQuery("ALTER SEQUENCE " + sequenceName + " RESTART WITH " + (maxId + ID_BLOCK + 1))
+                .executeUpdate();
+        long next;
+        do {
+            next = (Long) generator.generate(session, null, null, EventType.INSERT);
+        } while (next <= maxId);
+    }
+    
+    private Transaction persist(Object[] row) {
+        Transaction transaction = new Transaction();
+        transaction.setType((String) row[0]);
+        transaction.setAmount((BigDecimal) row[1]);
+        transaction.setDescription((String) row[2]);
+        transaction.setDate(((Timestamp) row[3]).toLocalDateTime());
+        transaction.setAccount(entityManager.getReference(Account.class, row[4]));
+        entityManager.persist(transaction);
+        return transaction;
+    }
+}
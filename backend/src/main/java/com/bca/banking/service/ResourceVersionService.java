@@ -0,0 +1,92 @@
+package com.bca.banking.service;
+
+import com.bca.banking.event.PostedTransaction;
+import com.bca.banking.event.TransactionPostedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Change counters behind the ETags of the polled account reads. Every posting bumps the counter of each account
+// it touched and of that account's owner, after the posting commits, so an ETag handed out before the change can
+// never be attached to data read after it. Clients revalidate with If-None-Match and get a 304 from a map lookup.
+// Counters live in memory: the per-process epoch in every ETag makes all tags change on restart.
+@Service
+public class ResourceVersionService {
+    
+    public static final CacheControl CACHE_CONTROL = CacheControl.noCache().cachePrivate();
+    
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    private final ConcurrentHashMap<Long, AtomicLong> accountVersions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, AtomicLong> userVersions = new ConcurrentHashMap<>();
+    
+    @Autowired
+    private AccountService accountService;
+    
+    // Covers everything served for one account: balance, history pages
+    public String accountEtag(Long accountId) {
+        return "\"a" + accountId + "-" + epoch + "-" + version(accountVersions, accountId) + "\"";
+    }
+    
+    // Covers the user's account list
+    public String userEtag(Long userId) {
+        return "\"u" + userId + "-" + epoch + "-" + version(userVersions, userId) + "\"";
+    }
+    
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // If-None-Match uses the weak comparison
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public static ResponseEntity<?> notModified(String etag) {
+        return ResponseEntity.status(304).eTag(etag).cacheControl(CACHE_CONTROL).build();
+    }
+    
+    @EventListener
+    public void onTransactionPosted(TransactionPostedEvent event) {
+        Set<Long> accounts = new HashSet<>();
+        Set<Long> users = new HashSet<>();
+        for (PostedTransaction transaction : event.transactions()) {
+            if (accounts.add(transaction.accountId())) {
+                accountService.getOwnerId(transaction.accountId()).ifPresent(users::add);
+            }
+        }
+        Runnable bump = () -> {
+            accounts.forEach(id -> accountVersions.computeIfAbsent(id, k -> new AtomicLong()).incrementAndGet());
+            users.forEach(id -> userVersions.computeIfAbsent(id, k -> new AtomicLong()).incrementAndGet());
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bump.run();
+                }
+            });
+        } else {
+            bump.run();
+        }
+    }
+    
+    private static long version(ConcurrentHashMap<Long, AtomicLong> versions, Long id) {
+        AtomicLong version = versions.get(id);
+        return version != null ? version.get() : 0;
+    }
+}
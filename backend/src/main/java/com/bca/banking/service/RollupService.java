@@ -0,0 +1,322 @@
+package com.bca.banking.service;
+
+import com.bca.banking.dto.RollupTotal;
+import com.bca.banking.dto.SpendingPeriod;
+import com.bca.banking.dto.TransactionSummary;
+import com.bca.banking.event.PostedTransaction;
+import com.bca.banking.event.TransactionPostedEvent;
+import com.bca.banking.model.TransactionRollup;
+import com.bca.banking.repository.AccountBalanceSlotRepository;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.TransactionRepository;
+import com.bca.banking.repository.TransactionRollupRepository;
+import com.bca.banking.service.HotAccountService.HotAccount;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+// Daily and monthly totals per account and transaction type, kept in transaction_rollups so analytics reads
+// touch one row per period instead of the account's whole history. Rollups are updated from TransactionPostedEvent,
+// inside the transaction that wrote the ledger rows (just before it commits), so they commit or roll back with them.
+// The rebuild recomputes them from the transactions table, account by account. On startup only accounts with ledger
+// rows but no rollups at all are rebuilt (seed data, a database restored from a ledger snapshot); a full rebuild of
+// every account is opt-in.
+// Rollups are by type only, not by payee category: ledger rows do not record the payee, so a category total
+// could not be rebuilt from the transactions table (nor from the ledger engine's journal, which has no payee either).
+@Service
+public class RollupService {
+    
+    public static final String DAY = "DAY";
+    public static final String MONTH = "MONTH";
+    
+    private static final Logger logger = LoggerFactory.getLogger(RollupService.class);
+    
+    private static final Comparator<RollupKey> KEY_ORDER = Comparator.comparing(RollupKey::accountId)
+            .thenComparing(RollupKey::granularity)
+            .thenComparing(RollupKey::periodStart)
+            .thenComparing(RollupKey::type)
+            .thenComparing(RollupKey::slot);
+    
+    @Autowired
+    private TransactionRollupRepository rollupRepository;
+    
+    @Autowired
+    private TransactionRepository transactionRepository;
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private AccountBalanceSlotRepository slotRepository;
+    
+    @Autowired
+    private HotAccountService hotAccountService;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired
+    private DataSource dataSource;
+    
+    @PersistenceContext
+    private EntityManager entityManager;
+    
+    @Value("${banking.rollups.rebuild-on-startup:false}")
+    private boolean rebuildOnStartup;
+    
+    // Deltas are collected for the whole database transaction (a transfer's DEBIT and CREDIT arrive as separate
+    // events) and written once, in KEY_ORDER, just before it commits. Every posting then takes its rollup row locks
+    // in the same (account, ..., slot) order, so concurrent postings cannot deadlock on them. A hot account uses one
+    // random slot per transaction.
+    @EventListener
+    public void onTransactionPosted(TransactionPostedEvent event) {
+        PendingRollups pending = pendingRollups();
+        Map<RollupKey, Totals> deltas = pending != null ? pending.deltas : new TreeMap<>(KEY_ORDER);
+        for (PostedTransaction transaction : event.transactions()) {
+            int slot = pending != null ? pending.slots.computeIfAbsent(transaction.accountId(), this::rollupSlot)
+                    : rollupSlot(transaction.accountId());
+            LocalDate day = transaction.date().toLocalDate();
+            add(deltas, new RollupKey(transaction.accountId(), DAY, day, transaction.type(), slot), transaction.amount());
+            add(deltas, new RollupKey(transaction.accountId(), MONTH, day.withDayOfMonth(1), transaction.type(), slot),
+                    transaction.amount());
+        }
+        if (pending == null) {
+            write(deltas);
+        }
+    }
+    
+    private int rollupSlot(Long accountId) {
+        HotAccount hot = hotAccountService.find(accountId);
+        return hot != null ? ThreadLocalRandom.current().nextInt(hot.slots()) : 0;
+    }
+    
+    // The rollups the current transaction will write before it commits, or null outside a transaction
+    private PendingRollups pendingRollups() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        PendingRollups pending = (PendingRollups) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingRollups();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        return pending;
+    }
+    
+    private void write(Map<RollupKey, Totals> deltas) {
+        for (Map.Entry<RollupKey, Totals> delta : deltas.entrySet()) {
+            if (increment(delta.getKey(), delta.getValue()) == 0) {
+                create(delta);
+            }
+        }
+    }
+    
+    // The first posting to a period inserts its row. The INSERT runs behind a savepoint: if a concurrent posting
+    // created the row first, only the savepoint is rolled back (PostgreSQL would otherwise abort the whole
+    // posting's transaction) and the row is updated instead.
+    private void create(Map.Entry<RollupKey, Totals> delta) {
+        // The posting's own connection; Hibernate's JpaDialect does not offer savepoints, JDBC does
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            Savepoint savepoint = connection.setSavepoint();
+            try {
+                insert(List.of(delta));
+                connection.releaseSavepoint(savepoint);
+            } catch (DuplicateKeyException e) {
+                connection.rollback(savepoint);
+                increment(delta.getKey(), delta.getValue());
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Savepoint for rollup " + delta.getKey() + " failed", e);
+        }
+    }
+    
+    // Oldest period first; periods without any transactions are left out
+    public List<SpendingPeriod> getSpending(Long accountId, String granularity, LocalDate from, LocalDate to) {
+        Map<LocalDate, List<RollupTotal>> byPeriod = new LinkedHashMap<>();
+        for (RollupTotal total : rollupRepository.findTotals(accountId, granularity, from, to)) {
+            byPeriod.computeIfAbsent(total.periodStart(), period -> new ArrayList<>()).add(total);
+        }
+        List<SpendingPeriod> periods = new ArrayList<>(byPeriod.size());
+        for (Map.Entry<LocalDate, List<RollupTotal>> period : byPeriod.entrySet()) {
+            BigDecimal income = BigDecimal.ZERO;
+            BigDecimal spending = BigDecimal.ZERO;
+            long count = 0;
+            Map<String, BigDecimal> byType = new TreeMap<>();
+            for (RollupTotal total : period.getValue()) {
+                if ("DEBIT".equals(total.type())) {
+                    spending = spending.add(total.total());
+                } else {
+                    income = income.add(total.total());
+                }
+                count += total.transactionCount();
+                byType.put(total.type(), total.total());
+            }
+            periods.add(new SpendingPeriod(period.getKey(), income, spending, count, byType));
+        }
+        return periods;
+    }
+    
+    // Off unless banking.rollups.rebuild-cron is set
+    @Scheduled(cron = "${banking.rollups.rebuild-cron:-}")
+    public void scheduledRebuild() {
+        rebuildAll();
+    }
+    
+    // Rows written before the application started (seed data, imports) never produced events. A full rebuild locks
+    // every account in turn and re-reads all history, so by default only accounts the rollups have never seen are
+    // rebuilt, which costs one indexed probe per account when nothing is missing.
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        if (rebuildOnStartup) {
+            rebuildAll();
+        } else {
+            rebuildMissing();
+        }
+    }
+    
+    public void rebuildMissing() {
+        long started = System.currentTimeMillis();
+        List<Long> missing = jdbcTemplate.queryForList("SELECT a.id FROM accounts a "
+                + "WHERE EXISTS (SELECT 1 FROM transactions t WHERE t.account_id = a.id) "
+                + "AND NOT EXISTS (SELECT 1 FROM transaction_rollups r WHERE r.account_id = a.id) ORDER BY a.id", Long.class);
+        missing.forEach(this::rebuild);
+        logger.info("Built transaction rollups for {} accounts without any in {} ms", missing.size(),
+                System.currentTimeMillis() - started);
+    }
+    
+    public void rebuildAll() {
+        long started = System.currentTimeMillis();
+        int accounts = 0;
+        long after = Long.MIN_VALUE;
+        List<Long> ids;
+        while (!(ids = accountRepository.findIdsAfter(after, Limit.of(500))).isEmpty()) {
+            for (Long accountId : ids) {
+                rebuild(accountId);
+                accounts++;
+            }
+            after = ids.get(ids.size() - 1);
+        }
+        logger.info("Rebuilt transaction rollups for {} accounts in {} ms", accounts, System.currentTimeMillis() - started);
+    }
+    
+    // Holds the account's row (and hot-account slot) locks while recomputing, so no posting to it can commit
+    // between the delete and the insert
+    public void rebuild(Long accountId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            accountRepository.findAllByIdForUpdate(List.of(accountId));
+            slotRepository.findByAccountIdForUpdate(accountId);
+            jdbcTemplate.update("DELETE FROM transaction_rollups WHERE account_id = ?", accountId);
+            
+            Map<RollupKey, Totals> totals = new TreeMap<>(KEY_ORDER);
+            try (Stream<TransactionSummary> rows = transactionRepository.streamByAccountId(accountId, null, null)) {
+                Iterator<TransactionSummary> iterator = rows.iterator();
+                while (iterator.hasNext()) {
+                    TransactionSummary row = iterator.next();
+                    LocalDate day = row.date().toLocalDate();
+                    add(totals, new RollupKey(accountId, DAY, day, row.type(), 0), row.amount());
+                    add(totals, new RollupKey(accountId, MONTH, day.withDayOfMonth(1), row.type(), 0), row.amount());
+                }
+            }
+            insert(totals.entrySet());
+        });
+    }
+    
+    private static void add(Map<RollupKey, Totals> totals, RollupKey key, BigDecimal amount) {
+        Totals current = totals.computeIfAbsent(key, k -> new Totals());
+        current.amount = current.amount.add(amount);
+        current.count++;
+    }
+    
+    private int increment(RollupKey key, Totals delta) {
+        return jdbcTemplate.update("UPDATE transaction_rollups SET total = total + ?, transaction_count = transaction_count + ? "
+                        + "WHERE account_id = ? AND granularity = ? AND period_start = ? AND type = ? AND slot = ?",
+                delta.amount, delta.count, key.accountId(), key.granularity(), Date.valueOf(key.periodStart()), key.type(),
+                key.slot());
+    }
+    
+    private void insert(Iterable<Map.Entry<RollupKey, Totals>> rollups) {
+        List<Object[]> rows = new ArrayList<>();
+        for (Map.Entry<RollupKey, Totals> rollup : rollups) {
+            RollupKey key = rollup.getKey();
+            rows.add(new Object[]{nextId(), key.accountId(), key.granularity(), Date.valueOf(key.periodStart()), key.type(), key.slot(),
+                    rollup.getValue().amount, rollup.getValue().count});
+        }
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO transaction_rollups "
+                    + "(id, account_id, granularity, period_start, type, slot, total, transaction_count) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)", rows);
+        }
+    }
+    
+    // Drawn through TransactionRollup's own generator: pooled blocks of transaction_rollups_seq, fetched with the
+    // dialect's sequence syntax, never overlapping ids Hibernate hands out for the entity
+    private Long nextId() {
+        SharedSessionContractImplementor session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        BeforeExecutionGenerator generator = (BeforeExecutionGenerator) session.getFactory().getMappingMetamodel()
+                .getEntityDescriptor(TransactionRollup.class).getGenerator();
+        return (Long) generator.generate(session, null, null, EventType.INSERT);
+    }
+    
+    private record RollupKey(Long accountId, String granularity, LocalDate periodStart, String type, int slot) {
+    }
+    
+    private final class PendingRollups implements TransactionSynchronization {
+        private final Map<RollupKey, Totals> deltas = new TreeMap<>(KEY_ORDER);
+        private final Map<Long, Integer> slots = new HashMap<>();
+        
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            write(deltas);
+        }
+        
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResource(RollupService.this);
+        }
+    }
+    
+    private static final class Totals {
+        private BigDecimal amount = BigDecimal.ZERO;
+        private long count;
+    }
+}
@@ -0,0 +1,100 @@
+package com.bca.banking.service;
+
+import com.bca.banking.dto.SyncBatch;
+import com.bca.banking.event.PostedTransaction;
+import com.bca.banking.model.Account;
+import com.bca.banking.model.ChangeLogEntry;
+import com.bca.banking.model.Payee;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.ChangeLogRepository;
+import com.bca.banking.repository.PayeeRepository;
+import com.bca.banking.repository.TransactionRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Read side of delta sync: turns the user's change_log entries after a cursor into the current rows they point at
+@Service
+public class SyncService {
+    
+    @Autowired
+    private ChangeLogRepository changeLogRepository;
+    
+    @Autowired
+    private ChangeLogService changeLogService;
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private TransactionRepository transactionRepository;
+    
+    @Autowired
+    private PayeeRepository payeeRepository;
+    
+    // Everything the user has, with a cursor read before the data: anything that changes meanwhile is sent
+    // again on the next sync, which clients apply as upserts
+    @Transactional(readOnly = true)
+    public SyncBatch snapshot(Long userId) {
+        long cursor = changeLogService.safeCursor();
+        return new SyncBatch(cursor, false, accountRepository.findByUserId(userId),
+                transactionRepository.findPostedByUserId(userId), payeeRepository.findByUserId(userId), List.of());
+    }
+    
+    // At most limit change entries after since; several changes to one row collapse into its current state.
+    // Entries past the safe cursor may still have earlier sequences committing, so they wait for a later sync.
+    @Transactional(readOnly = true)
+    public SyncBatch changesSince(Long userId, long since, int limit) {
+        long until = changeLogService.safeCursor();
+        List<ChangeLogEntry> entries = changeLogRepository.findChanges(userId, since, until, Limit.of(limit + 1));
+        boolean hasMore = entries.size() > limit;
+        if (hasMore) {
+            entries = entries.subList(0, limit);
+        }
+        long cursor = entries.isEmpty() ? since : entries.get(entries.size() - 1).getSequence();
+        
+        Set<Long> accountIds = new LinkedHashSet<>();
+        Set<Long> transactionIds = new LinkedHashSet<>();
+        Map<Long, Boolean> payeeDeleted = new LinkedHashMap<>();
+        for (ChangeLogEntry entry : entries) {
+            switch (entry.getEntityType()) {
+                case ChangeLogService.ACCOUNT -> accountIds.add(entry.getEntityId());
+                case ChangeLogService.TRANSACTION -> transactionIds.add(entry.getEntityId());
+                case ChangeLogService.PAYEE -> payeeDeleted.put(entry.getEntityId(), entry.getDeleted());
+                default -> {
+                }
+            }
+        }
+        
+        List<Account> accounts = accountIds.isEmpty() ? List.of() : accountRepository.findAllById(accountIds).stream()
+                .filter(account -> account.getUser().getId().equals(userId))
+                .toList();
+        List<PostedTransaction> transactions = transactionIds.isEmpty() ? List.of()
+                : transactionRepository.findPostedByIdIn(transactionIds);
+        
+        List<Long> upsertedPayeeIds = new ArrayList<>();
+        List<Long> deletedPayeeIds = new ArrayList<>();
+        payeeDeleted.forEach((id, deleted) -> (deleted ? deletedPayeeIds : upsertedPayeeIds).add(id));
+        List<Payee> payees = new ArrayList<>();
+        if (!upsertedPayeeIds.isEmpty()) {
+            for (Payee payee : payeeRepository.findAllById(upsertedPayeeIds)) {
+                if (payee.getUser().getId().equals(userId)) {
+                    payees.add(payee);
+                }
+            }
+            // Deleted by a change beyond this batch; send the tombstone now rather than a row that is gone
+            Set<Long> found = new LinkedHashSet<>();
+            payees.forEach(payee -> found.add(payee.getId()));
+            upsertedPayeeIds.stream().filter(id -> !found.contains(id)).forEach(deletedPayeeIds::add);
+        }
+        return new SyncBatch(cursor, hasMore, accounts, transactions, payees, deletedPayeeIds);
+    }
+}
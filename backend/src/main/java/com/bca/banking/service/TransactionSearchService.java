@@ -0,0 +1,270 @@
+package com.bca.banking.service;
+
+import com.bca.banking.dto.TransactionSummary;
+import com.bca.banking.event.PostedTransaction;
+import com.bca.banking.event.TransactionPostedEvent;
+import com.bca.banking.model.Account;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.TransactionRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory inverted index over transaction descriptions, one per user, so search never scans the transactions table.
+// A user's index is built from the database on their first search and then kept current from TransactionPostedEvent,
+// which LedgerService publishes for every row it writes. Only the most recently searched users stay resident;
+// an evicted index is simply rebuilt on the next search.
+@Service
+public class TransactionSearchService {
+    
+    // Term matches above limit * SORT_THRESHOLD are not sorted; the index is walked in date order instead
+    private static final int SORT_THRESHOLD = 16;
+    private static final Comparator<PostedTransaction> NEWEST_FIRST = Comparator
+            .comparing(PostedTransaction::date, Comparator.reverseOrder())
+            .thenComparing(PostedTransaction::id, Comparator.reverseOrder());
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private TransactionRepository transactionRepository;
+    
+    @Autowired
+    private AccountService accountService;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${banking.search.max-users:1000}")
+    private int maxUsers;
+    
+    private Map<Long, UserIndex> indexes;
+    private Timer queryTimer;
+    
+    // Owner of every account whose user currently has a resident index; accounts never change owner
+    private final ConcurrentHashMap<Long, Long> accountOwners = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    void init() {
+        indexes = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, UserIndex> eldest) {
+                if (size() > maxUsers) {
+                    accountOwners.values().removeIf(eldest.getKey()::equals);
+                    return true;
+                }
+                return false;
+            }
+        });
+        Gauge.builder("search.index.users", indexes, Map::size).register(meterRegistry);
+        queryTimer = Timer.builder("search.query.time").register(meterRegistry);
+    }
+    
+    // Terms match the start of any word in the description and are ANDed; every other criterion is optional.
+    // Results are newest first.
+    public List<PostedTransaction> search(Long userId, String query, Long accountId, String type, BigDecimal minAmount,
+                                          BigDecimal maxAmount, LocalDateTime from, LocalDateTime to, int limit) {
+        return queryTimer.record(() -> query(userId, query, accountId, type, minAmount, maxAmount, from, to, limit));
+    }
+    
+    private List<PostedTransaction> query(Long userId, String query, Long accountId, String type, BigDecimal minAmount,
+                                          BigDecimal maxAmount, LocalDateTime from, LocalDateTime to, int limit) {
+        List<String> terms = tokenize(query);
+        UserIndex index = indexFor(userId);
+        index.lock.readLock().lock();
+        try {
+            // Without terms the newest-first order of the index is walked until the page is full
+            Iterable<PostedTransaction> candidates = index.newestFirst;
+            if (!terms.isEmpty()) {
+                List<Set<Long>> postings = new ArrayList<>(terms.size());
+                for (String term : terms) {
+                    Set<Long> matches = index.matching(term);
+                    if (matches.isEmpty()) {
+                        return List.of();
+                    }
+                    postings.add(matches);
+                }
+                // Intersect by probing the other terms' postings, starting from the rarest term
+                postings.sort(Comparator.comparingInt(Set::size));
+                Set<Long> rarest = postings.get(0);
+                List<Set<Long>> others = postings.subList(1, postings.size());
+                if (rarest.size() > limit * SORT_THRESHOLD) {
+                    candidates = () -> index.newestFirst.stream()
+                            .filter(t -> rarest.contains(t.id()) && containedInAll(others, t.id()))
+                            .iterator();
+                } else {
+                    List<PostedTransaction> matched = new ArrayList<>(rarest.size());
+                    for (Long id : rarest) {
+                        if (containedInAll(others, id)) {
+                            matched.add(index.documents.get(id));
+                        }
+                    }
+                    matched.sort(NEWEST_FIRST);
+                    candidates = matched;
+                }
+            }
+            
+            List<PostedTransaction> results = new ArrayList<>();
+            for (PostedTransaction candidate : candidates) {
+                if ((accountId == null || accountId.equals(candidate.accountId()))
+                        && (type == null || type.equals(candidate.type()))
+                        && (minAmount == null || candidate.amount().compareTo(minAmount) >= 0)
+                        && (maxAmount == null || candidate.amount().compareTo(maxAmount) <= 0)
+                        && (from == null || !candidate.date().isBefore(from))
+                        && (to == null || candidate.date().isBefore(to))) {
+                    results.add(candidate);
+                    if (results.size() == limit) {
+                        break;
+                    }
+                }
+            }
+            return results;
+        } finally {
+            index.lock.readLock().unlock();
+        }
+    }
+    
+    // Runs once the writing transaction has committed, so rolled-back rows never become searchable
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTransactionPosted(TransactionPostedEvent event) {
+        for (PostedTransaction transaction : event.transactions()) {
+            Long userId = accountOwners.get(transaction.accountId());
+            if (userId == null) {
+                // An account opened after its owner's index was built; AccountService remembers owners, so this is
+                // rarely a query
+                userId = accountService.getOwnerId(transaction.accountId()).orElse(null);
+            }
+            UserIndex index = userId != null ? indexes.get(userId) : null;
+            if (index == null) {
+                // Nobody has searched this account's owner recently; the index is built from the table when they do
+                continue;
+            }
+            accountOwners.put(transaction.accountId(), userId);
+            index.add(transaction);
+        }
+    }
+    
+    private static boolean containedInAll(List<Set<Long>> postings, Long id) {
+        for (Set<Long> posting : postings) {
+            if (!posting.contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private UserIndex indexFor(Long userId) {
+        UserIndex index;
+        synchronized (indexes) {
+            index = indexes.get(userId);
+            if (index == null) {
+                // Registered before loading so that rows committed while the table is being read are not missed;
+                // add() ignores ids the load also picks up
+                index = new UserIndex();
+                indexes.put(userId, index);
+            }
+        }
+        index.ensureLoaded(userId);
+        return index;
+    }
+    
+    private void load(Long userId, UserIndex index) {
+        List<Account> accounts = accountRepository.findByUserId(userId);
+        for (Account account : accounts) {
+            accountOwners.put(account.getId(), userId);
+        }
+        for (Account account : accounts) {
+            for (TransactionSummary row : transactionRepository.findSummariesByAccountId(account.getId())) {
+                index.add(new PostedTransaction(row.id(), account.getId(), row.type(), row.amount(), row.description(),
+                        row.date()));
+            }
+        }
+    }
+    
+    private static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+    
+    private final class UserIndex {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Long, PostedTransaction> documents = new HashMap<>();
+        private final NavigableSet<PostedTransaction> newestFirst = new TreeSet<>(NEWEST_FIRST);
+        private final NavigableMap<String, Set<Long>> postings = new TreeMap<>();
+        private volatile boolean loaded;
+        
+        private void ensureLoaded(Long userId) {
+            if (loaded) {
+                return;
+            }
+            synchronized (this) {
+                if (!loaded) {
+                    load(userId, this);
+                    loaded = true;
+                }
+            }
+        }
+        
+        private void add(PostedTransaction transaction) {
+            lock.writeLock().lock();
+            try {
+                if (documents.putIfAbsent(transaction.id(), transaction) != null) {
+                    return;
+                }
+                newestFirst.add(transaction);
+                for (String token : tokenize(transaction.description())) {
+                    postings.computeIfAbsent(token, t -> new HashSet<>()).add(transaction.id());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // Ids of documents with a word starting with the term, not to be modified; caller holds the read lock
+        private Set<Long> matching(String term) {
+            Collection<Set<Long>> matches = postings.subMap(term, true, term + Character.MAX_VALUE, false).values();
+            if (matches.size() == 1) {
+                return matches.iterator().next();
+            }
+            Set<Long> ids = new HashSet<>();
+            for (Set<Long> posting : matches) {
+                ids.addAll(posting);
+            }
+            return ids;
+        }
+    }
+}
@@ -1,20 +1,125 @@
 package com.bca.banking.service;
 
-import com.bca.banking.model.Transaction;
+import com.bca.banking.dto.TransactionPage;
+import com.bca.banking.dto.TransactionSummary;
+import com.bca.banking.event.PostedTransaction;
 import com.bca.banking.repository.TransactionRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Service
 public class TransactionService {
     
+    private static final int EXPORT_FLUSH_ROWS = 500;
+    
     @Autowired
     private TransactionRepository transactionRepository;
     
-    public List<Transaction> getTransactionsByAccountId(Long accountId) {
-        return transactionRepository.findByAccountIdOrderByDateDesc(accountId);
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    public List<TransactionSummary> getTransactionsByAccountId(Long accountId) {
+        return transactionRepository.findSummariesByAccountId(accountId);
+    }
+    
+    // One page of history, newest first. The cursor is the (date, id) of the last row of the previous page, so each
+    // page is an index range scan however old the account is.
+    public TransactionPage getTransactionPage(Long accountId, String cursor, int limit, LocalDateTime from,
+                                              LocalDateTime to, String type) {
+        LocalDateTime cursorDate = null;
+        Long cursorId = null;
+        if (cursor != null) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|");
+                cursorDate = LocalDateTime.parse(parts[0]);
+                cursorId = Long.parseLong(parts[1]);
+            } catch (IllegalArgumentException | DateTimeException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+        }
+        List<TransactionSummary> rows = transactionRepository.findPage(accountId, type, from, to, cursorDate, cursorId, Limit.of(limit + 1));
+        if (rows.size() <= limit) {
+            return new TransactionPage(rows, null);
+        }
+        List<TransactionSummary> items = rows.subList(0, limit);
+        TransactionSummary last = items.get(limit - 1);
+        return new TransactionPage(items, encodeCursor(last.date() + "|" + last.id()));
+    }
+    
+    // Newest first across several accounts: the first rows of each account's history index, merged, so no query
+    // has to sort everything the accounts ever posted
+    public List<PostedTransaction> getRecentTransactions(List<Long> accountIds, int limit) {
+        List<PostedTransaction> recent = new ArrayList<>();
+        for (Long accountId : accountIds) {
+            for (TransactionSummary row : transactionRepository.findPage(accountId, null, null, null, null, null, Limit.of(limit))) {
+                recent.add(new PostedTransaction(row.id(), accountId, row.type(), row.amount(), row.description(), row.date()));
+            }
+        }
+        recent.sort(Comparator.comparing(PostedTransaction::date, Comparator.reverseOrder())
+                .thenComparing(PostedTransaction::id, Comparator.reverseOrder()));
+        return recent.size() > limit ? List.copyOf(recent.subList(0, limit)) : recent;
+    }
+    
+    private static String encodeCursor(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    // Writes the account's history, oldest first, as CSV or NDJSON while rows arrive from a database cursor.
+    // Only one row is held at a time and the output is flushed every EXPORT_FLUSH_ROWS rows, so memory stays
+    // flat whatever the size of the export.
+    @Transactional(readOnly = true)
+    public void exportTransactions(Long accountId, LocalDateTime from, LocalDateTime to, String format, OutputStream out)
+            throws IOException {
+        boolean csv = "csv".equals(format);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (csv) {
+            writer.write("id,date,type,amount,description\n");
+        }
+        try (Stream<TransactionSummary> rows = transactionRepository.streamByAccountId(accountId, from, to)) {
+            Iterator<TransactionSummary> iterator = rows.iterator();
+            int count = 0;
+            while (iterator.hasNext()) {
+                TransactionSummary row = iterator.next();
+                if (csv) {
+                    writer.write(row.id() + "," + row.date() + "," + row.type() + "," + row.amount().toPlainString() + ","
+                            + csvField(row.description()) + "\n");
+                } else {
+                    writer.write(objectMapper.writeValueAsString(row));
+                    writer.write('\n');
+                }
+                if (++count % EXPORT_FLUSH_ROWS == 0) {
+                    writer.flush();
+                }
+            }
+        }
+        writer.flush();
+    }
+    
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
     }
 }
-
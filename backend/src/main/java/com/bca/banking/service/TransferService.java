@@ -1,76 +1,235 @@
 package com.bca.banking.service;
 
+import com.bca.banking.dto.BatchTransferResult;
+import com.bca.banking.dto.TransferRequest;
+import com.bca.banking.ledger.LedgerEngine.Leg;
+import com.bca.banking.ledger.LedgerEngine;
 import com.bca.banking.model.Account;
-import com.bca.banking.model.Transaction;
 import com.bca.banking.repository.AccountRepository;
-import com.bca.banking.repository.TransactionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 @Service
 public class TransferService {
     
+    private static final Logger logger = LoggerFactory.getLogger(TransferService.class);
+    
     @Autowired
     private AccountRepository accountRepository;
     
     @Autowired
-    private TransactionRepository transactionRepository;
+    private LedgerService ledgerService;
+    
+    @Autowired
+    private AccountService accountService;
+    
+    @Autowired
+    private HotAccountService hotAccountService;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
     
-    @Transactional
+    @Autowired(required = false)
+    private LedgerEngine ledgerEngine;
+    
+    @Value("${banking.transfers.lock-retries:3}")
+    private int lockRetries;
+    
+    // Not @Transactional: with the engine on, a request waiting for its group commit must not hold a database
+    // connection, so only the database path opens a transaction
     public boolean transfer(Long fromAccountId, Long toAccountId, BigDecimal amount, String description, Long userId) {
         if (fromAccountId == null || toAccountId == null || userId == null) {
             return false;
         }
-        Optional<Account> fromAccountOpt = accountRepository.findById(fromAccountId);
-        Optional<Account> toAccountOpt = accountRepository.findById(toAccountId);
-        
-        if (fromAccountOpt.isEmpty() || toAccountOpt.isEmpty()) {
+        // Same rule as a batch leg and the engine: moving money onto the account it came from is refused
+        if (fromAccountId.equals(toAccountId)) {
             return false;
         }
-        
-        Account fromAccount = fromAccountOpt.get();
-        Account toAccount = toAccountOpt.get();
-        
-        // Verify ownership
-        if (!fromAccount.getUser().getId().equals(userId)) {
+        if (ledgerEngine != null) {
+            return ledgerEngine.submit(userId, List.of(new Leg(fromAccountId, toAccountId, amount, description)), true).get(0) == null;
+        }
+        return Boolean.TRUE.equals(executeWithRetry(status ->
+                transferOnDatabase(fromAccountId, toAccountId, amount, description, userId)));
+    }
+    
+    private boolean transferOnDatabase(Long fromAccountId, Long toAccountId, BigDecimal amount, String description, Long userId) {
+        // Ownership and the destination are checked before anything is written. Plain account rows are locked
+        // up front in ascending id order (hot accounts only lock a balance slot, after every row lock), so the
+        // debit can always go first: a refused transfer writes nothing and no step ever has to be undone.
+        if (!userId.equals(accountService.getOwnerId(fromAccountId).orElse(null))) {
             return false;
         }
-        
-        // Check sufficient balance
-        if (fromAccount.getBalance().compareTo(amount) < 0) {
+        List<Long> locked = accountRepository.lockPlainAccounts(new TreeSet<>(List.of(fromAccountId, toAccountId)));
+        if (!locked.contains(toAccountId) && hotAccountService.load(toAccountId) == null) {
+            return false;
+        }
+        if (!ledgerService.debit(fromAccountId, userId, amount)) {
             return false;
         }
+        ledgerService.credit(toAccountId, amount);
+        
+        ledgerService.record(fromAccountId, "DEBIT", amount,
+                description != null ? description : "Transfer to " + accountNumber(toAccountId));
+        ledgerService.record(toAccountId, "CREDIT", amount,
+                description != null ? description : "Transfer from " + accountNumber(fromAccountId));
+        
+        return true;
+    }
+    
+    private String accountNumber(Long accountId) {
+        return accountRepository.findAccountNumberById(accountId).orElse("");
+    }
+    
+    // Applies many transfers in one database transaction. All involved accounts are loaded and locked by a single
+    // query in ascending id order, legs are validated against running balances, and the ledger rows are written
+    // with one JDBC batch. With atomic=true nothing is applied unless every leg is valid.
+    public List<BatchTransferResult> transferBatch(List<TransferRequest> transfers, boolean atomic, Long userId) {
+        if (ledgerEngine != null) {
+            return transferBatchOnEngine(transfers, atomic, userId);
+        }
+        return executeWithRetry(status -> transferBatchOnDatabase(transfers, atomic, userId));
+    }
+    
+    // Row locks are taken in a fixed order, but the database can still pick a deadlock victim or time out a lock
+    // wait (hot account slots are chosen at random, and other writers lock rows of their own). The victim's
+    // transaction is rolled back whole, so it is simply run again, a bounded number of times.
+    // Inside a caller's transaction (an idempotent request) a failed attempt has already doomed that transaction,
+    // so the conflict is passed up for the caller to retry at its own boundary.
+    private <T> T executeWithRetry(TransactionCallback<T> callback) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return transactionTemplate.execute(callback);
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(callback);
+            } catch (PessimisticLockingFailureException e) {
+                if (attempt > lockRetries) {
+                    throw e;
+                }
+                logger.debug("Transfer lost a lock conflict, retrying (attempt {})", attempt, e);
+            }
+        }
+    }
+    
+    private List<BatchTransferResult> transferBatchOnDatabase(List<TransferRequest> transfers, boolean atomic, Long userId) {
+        TreeSet<Long> accountIds = new TreeSet<>();
+        for (TransferRequest transfer : transfers) {
+            accountIds.add(transfer.getFromAccountId());
+            accountIds.add(transfer.getToAccountId());
+        }
+        Map<Long, Account> accounts = new HashMap<>();
+        for (Account account : accountRepository.findAllByIdForUpdate(accountIds)) {
+            accounts.put(account.getId(), account);
+        }
         
-        // Perform transfer
-        fromAccount.setBalance(fromAccount.getBalance().subtract(amount));
-        toAccount.setBalance(toAccount.getBalance().add(amount));
+        Map<Long, BigDecimal> balances = new HashMap<>();
+        accounts.forEach((id, account) -> balances.put(id, account.getBalance()));
         
-        accountRepository.save(fromAccount);
-        accountRepository.save(toAccount);
+        List<BatchTransferResult> results = new ArrayList<>(transfers.size());
+        List<Object[]> ledgerRows = new ArrayList<>(transfers.size() * 2);
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        boolean anyFailed = false;
         
-        // Create transactions
-        Transaction debitTransaction = new Transaction();
-        debitTransaction.setType("DEBIT");
-        debitTransaction.setAmount(amount);
-        debitTransaction.setDescription(description != null ? description : "Transfer to " + toAccount.getAccountNumber());
-        debitTransaction.setDate(LocalDateTime.now());
-        debitTransaction.setAccount(fromAccount);
-        transactionRepository.save(debitTransaction);
+        for (int i = 0; i < transfers.size(); i++) {
+            TransferRequest transfer = transfers.get(i);
+            Account fromAccount = accounts.get(transfer.getFromAccountId());
+            Account toAccount = accounts.get(transfer.getToAccountId());
+            String error = validateLeg(transfer, fromAccount, toAccount, balances, userId);
+            if (error != null) {
+                anyFailed = true;
+                results.add(new BatchTransferResult(i, "FAILED", error));
+                continue;
+            }
+            
+            BigDecimal amount = transfer.getAmount();
+            balances.merge(fromAccount.getId(), amount.negate(), BigDecimal::add);
+            balances.merge(toAccount.getId(), amount, BigDecimal::add);
+            
+            String description = transfer.getDescription();
+            ledgerRows.add(new Object[]{"DEBIT", amount,
+                    description != null ? description : "Transfer to " + toAccount.getAccountNumber(), now, fromAccount.getId()});
+            ledgerRows.add(new Object[]{"CREDIT", amount,
+                    description != null ? description : "Transfer from " + fromAccount.getAccountNumber(), now, toAccount.getId()});
+            results.add(new BatchTransferResult(i, "COMPLETED", null));
+        }
         
-        Transaction creditTransaction = new Transaction();
-        creditTransaction.setType("CREDIT");
-        creditTransaction.setAmount(amount);
-        creditTransaction.setDescription(description != null ? description : "Transfer from " + fromAccount.getAccountNumber());
-        creditTransaction.setDate(LocalDateTime.now());
-        creditTransaction.setAccount(toAccount);
-        transactionRepository.save(creditTransaction);
+        if (atomic && anyFailed) {
+            for (int i = 0; i < results.size(); i++) {
+                if ("COMPLETED".equals(results.get(i).getStatus())) {
+                    results.set(i, new BatchTransferResult(i, "NOT_APPLIED", LedgerEngine.NOT_APPLIED));
+                }
+            }
+            return results;
+        }
         
-        return true;
+        // Plain accounts change through the managed entities (one versioned UPDATE per account at flush), which
+        // bypasses LedgerService, so their owners' cached accounts are evicted here; hot accounts apply their net
+        // change to the balance slots through LedgerService
+        for (Account account : accounts.values()) {
+            BigDecimal delta = balances.get(account.getId()).subtract(account.getBalance());
+            if (delta.signum() == 0) {
+                continue;
+            }
+            if (account.getBalanceSlots() == 0) {
+                account.setBalance(account.getBalance().add(delta));
+                accountService.evictAfterCommit(account.getId());
+            } else if (delta.signum() > 0) {
+                ledgerService.credit(account.getId(), delta);
+            } else if (!ledgerService.debit(account.getId(), userId, delta.negate())) {
+                throw new IllegalStateException("Balance of hot account " + account.getId() + " changed during the batch");
+            }
+        }
+        ledgerService.recordBatch(ledgerRows);
+        return results;
+    }
+    
+    private List<BatchTransferResult> transferBatchOnEngine(List<TransferRequest> transfers, boolean atomic, Long userId) {
+        List<Leg> legs = transfers.stream()
+                .map(t -> new Leg(t.getFromAccountId(), t.getToAccountId(), t.getAmount(), t.getDescription()))
+                .toList();
+        List<String> errors = ledgerEngine.submit(userId, legs, atomic);
+        List<BatchTransferResult> results = new ArrayList<>(errors.size());
+        for (int i = 0; i < errors.size(); i++) {
+            String error = errors.get(i);
+            if (error == null) {
+                results.add(new BatchTransferResult(i, "COMPLETED", null));
+            } else {
+                results.add(new BatchTransferResult(i, LedgerEngine.NOT_APPLIED.equals(error) ? "NOT_APPLIED" : "FAILED", error));
+            }
+        }
+        return results;
+    }
+    
+    private String validateLeg(TransferRequest transfer, Account fromAccount, Account toAccount,
+                               Map<Long, BigDecimal> balances, Long userId) {
+        if (fromAccount == null || toAccount == null) {
+            return "Account not found";
+        }
+        if (fromAccount.getId().equals(toAccount.getId())) {
+            return "Source and destination accounts must differ";
+        }
+        if (!fromAccount.getUser().getId().equals(userId)) {
+            return "Source account does not belong to the user";
+        }
+        if (balances.get(fromAccount.getId()).compareTo(transfer.getAmount()) < 0) {
+            return "Insufficient balance";
+        }
+        return null;
     }
 }
-
@@ -2,11 +2,14 @@ package com.bca.banking.service;
 
 import com.bca.banking.model.User;
 import com.bca.banking.repository.UserRepository;
+import com.bca.banking.security.PasswordHashingService;
+import com.bca.banking.security.TokenRevocationService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class UserService {
@@ -15,7 +18,10 @@ public class UserService {
     private UserRepository userRepository;
     
     @Autowired
-    private PasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
+    
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
     
     public Optional<User> getUserById(Long userId) {
         if (userId == null) {
@@ -24,23 +30,31 @@ public class UserService {
         return userRepository.findById(userId);
     }
     
-    public boolean changePassword(Long userId, String currentPassword, String newPassword) {
+    // Both BCrypt steps run on the hashing pool; the request thread is released while they execute
+    public CompletableFuture<Boolean> changePassword(Long userId, String currentPassword, String newPassword) {
         if (userId == null) {
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
         Optional<User> userOpt = userRepository.findById(userId);
         if (userOpt.isEmpty()) {
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
         
         User user = userOpt.get();
-        if (!passwordEncoder.matches(currentPassword, user.getPassword())) {
-            return false;
-        }
-        
-        user.setPassword(passwordEncoder.encode(newPassword));
-        userRepository.save(user);
-        return true;
+        return passwordHashingService.matches(currentPassword, user.getPassword())
+                .thenCompose(matches -> {
+                    if (!matches) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    return passwordHashingService.encode(newPassword)
+                            .thenApply(encoded -> {
+                                // Also signs out every existing session of this user
+                                if (userRepository.changePassword(userId, user.getPassword(), encoded, Instant.now()) == 0) {
+                                    return false;
+                                }
+                                tokenRevocationService.tokenVersionRaised(userId);
+                                return true;
+                            });
+                });
     }
 }
-
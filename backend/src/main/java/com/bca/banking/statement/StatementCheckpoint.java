@@ -0,0 +1,87 @@
+package com.bca.banking.statement;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Progress of one statement run, kept next to its output. "plan" lists the chunks as "firstId lastId" lines and is
+// written once, before any work starts; "progress" gets a chunk number appended (and synced) as each chunk finishes;
+// "complete" marks a finished run. A restarted run reuses the plan and skips chunks already in progress.
+public class StatementCheckpoint {
+    
+    private static final String PLAN = "plan";
+    private static final String PROGRESS = "progress";
+    private static final String COMPLETE = "complete";
+    
+    private final Path directory;
+    
+    public StatementCheckpoint(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+    
+    public boolean isComplete() {
+        return Files.exists(directory.resolve(COMPLETE));
+    }
+    
+    public boolean isStarted() {
+        return Files.exists(directory.resolve(PLAN));
+    }
+    
+    // Chunks as {firstId, lastId}, or null if the run has not been planned yet
+    public List<long[]> plan() throws IOException {
+        if (!isStarted()) {
+            return null;
+        }
+        List<long[]> chunks = new ArrayList<>();
+        for (String line : Files.readAllLines(directory.resolve(PLAN), StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                String[] ids = line.split(" ");
+                chunks.add(new long[]{Long.parseLong(ids[0]), Long.parseLong(ids[1])});
+            }
+        }
+        return chunks;
+    }
+    
+    public void writePlan(List<long[]> chunks) throws IOException {
+        StringBuilder plan = new StringBuilder();
+        for (long[] chunk : chunks) {
+            plan.append(chunk[0]).append(' ').append(chunk[1]).append('\n');
+        }
+        Path temporary = directory.resolve(PLAN + ".tmp");
+        Files.writeString(temporary, plan, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SYNC);
+        Files.move(temporary, directory.resolve(PLAN), StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    public Set<Integer> completedChunks() throws IOException {
+        Set<Integer> completed = new HashSet<>();
+        Path progress = directory.resolve(PROGRESS);
+        if (Files.exists(progress)) {
+            String content = Files.readString(progress, StandardCharsets.UTF_8);
+            // A torn last line from a crash has no newline and is ignored; that chunk is simply done again
+            String[] lines = content.split("\n", -1);
+            for (int i = 0; i < lines.length - 1; i++) {
+                completed.add(Integer.parseInt(lines[i]));
+            }
+        }
+        return completed;
+    }
+    
+    public synchronized void markChunkDone(int chunk) throws IOException {
+        Files.writeString(directory.resolve(PROGRESS), chunk + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+    }
+    
+    public void markComplete() throws IOException {
+        Files.writeString(directory.resolve(COMPLETE), "", StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.SYNC);
+    }
+}
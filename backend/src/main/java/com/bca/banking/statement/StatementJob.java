@@ -0,0 +1,229 @@
+package com.bca.banking.statement;
+
+import com.bca.banking.dto.StatementAccount;
+import com.bca.banking.dto.TransactionSummary;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.TransactionRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Month-end statements for every account, one JSON file per account under <directory>/<yyyy-MM>/.
+// Accounts are split into id-range chunks that run in parallel on a fixed pool, each chunk in its own read-only
+// transaction streaming one account's transactions at a time. Finished chunks are checkpointed, so a run cut short
+// by a crash or shutdown is resumed on the next start and only redoes the chunks that were in flight.
+@Component
+public class StatementJob {
+    
+    private static final Logger logger = LoggerFactory.getLogger(StatementJob.class);
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private TransactionRepository transactionRepository;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${banking.statements.directory:data/statements}")
+    private String directory;
+    
+    @Value("${banking.statements.chunk-size:500}")
+    private int chunkSize;
+    
+    // 0 means one per core; each worker holds a database connection while it runs
+    @Value("${banking.statements.threads:0}")
+    private int threads;
+    
+    private TransactionTemplate readOnlyTransaction;
+    private StatementWriter statementWriter;
+    private Counter statementsCounter;
+    // Runs are queued on one thread so two runs never work on the same period at once
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "statement-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    @PostConstruct
+    void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        statementWriter = new StatementWriter(objectMapper);
+        statementsCounter = Counter.builder("statements.generated").register(meterRegistry);
+    }
+    
+    @PreDestroy
+    void stop() {
+        // Workers stop between accounts; unfinished chunks are redone on the next start
+        runner.shutdownNow();
+    }
+    
+    // Last month's statements, early on the first of the month
+    @Scheduled(cron = "${banking.statements.cron:0 0 2 1 * *}")
+    public void generateLastMonth() {
+        submit(YearMonth.now().minusMonths(1));
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() throws IOException {
+        Path root = Paths.get(directory);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (Stream<Path> runs = Files.list(root)) {
+            for (Path run : runs.sorted().toList()) {
+                YearMonth period;
+                try {
+                    period = YearMonth.parse(run.getFileName().toString());
+                } catch (DateTimeParseException e) {
+                    continue;
+                }
+                StatementCheckpoint checkpoint = new StatementCheckpoint(run);
+                if (checkpoint.isStarted() && !checkpoint.isComplete()) {
+                    logger.info("Resuming unfinished statement run for {}", period);
+                    submit(period);
+                }
+            }
+        }
+    }
+    
+    public Future<?> submit(YearMonth period) {
+        return runner.submit(() -> {
+            try {
+                generate(period);
+            } catch (Exception e) {
+                logger.error("Statement run for {} failed; it will resume from its checkpoint", period, e);
+            }
+        });
+    }
+    
+    private void generate(YearMonth period) throws IOException, InterruptedException {
+        Path runDirectory = Paths.get(directory, period.toString());
+        StatementCheckpoint checkpoint = new StatementCheckpoint(runDirectory);
+        if (checkpoint.isComplete()) {
+            return;
+        }
+        List<long[]> chunks = checkpoint.plan();
+        if (chunks == null) {
+            chunks = planChunks();
+            checkpoint.writePlan(chunks);
+        }
+        Set<Integer> completed = checkpoint.completedChunks();
+        
+        LocalDateTime from = period.atDay(1).atStartOfDay();
+        LocalDateTime to = period.plusMonths(1).atDay(1).atStartOfDay();
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "statement-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        long started = System.nanoTime();
+        List<Future<Integer>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                if (completed.contains(i)) {
+                    continue;
+                }
+                int chunk = i;
+                long[] ids = chunks.get(i);
+                results.add(workers.submit(() -> {
+                    int written = writeChunk(runDirectory, period, ids[0], ids[1], from, to);
+                    checkpoint.markChunkDone(chunk);
+                    return written;
+                }));
+            }
+            
+            int accounts = 0;
+            for (Future<Integer> result : results) {
+                accounts += result.get();
+            }
+            checkpoint.markComplete();
+            double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+            logger.info("Statements for {}: {} accounts in {} chunks ({} already done) on {} threads, {} accounts/s",
+                    period, accounts, results.size(), completed.size(), poolSize, Math.round(accounts / seconds));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Statement chunk failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+    
+    // Consecutive id ranges of at most chunkSize accounts, found by walking the primary key
+    private List<long[]> planChunks() {
+        List<long[]> chunks = new ArrayList<>();
+        long after = Long.MIN_VALUE;
+        while (true) {
+            List<Long> ids = accountRepository.findIdsAfter(after, Limit.of(chunkSize));
+            if (ids.isEmpty()) {
+                return chunks;
+            }
+            after = ids.get(ids.size() - 1);
+            chunks.add(new long[]{ids.get(0), after});
+        }
+    }
+    
+    private int writeChunk(Path runDirectory, YearMonth period, long firstId, long lastId, LocalDateTime from,
+                           LocalDateTime to) {
+        return readOnlyTransaction.execute(status -> {
+            List<StatementAccount> accounts = accountRepository.findStatementAccounts(firstId, lastId, from);
+            for (StatementAccount account : accounts) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IllegalStateException("Statement run interrupted");
+                }
+                try (Stream<TransactionSummary> transactions = transactionRepository.streamByAccountId(account.id(), from, to)) {
+                    statementWriter.write(runDirectory, period, account, transactions.iterator());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                statementsCounter.increment();
+            }
+            return accounts.size();
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package com.bca.banking.statement;
+
+import com.bca.banking.dto.StatementAccount;
+import com.bca.banking.dto.TransactionSummary;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.YearMonth;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Writes one account's statement as a JSON document while its transactions are read, so only the running
+// totals are held in memory. The file appears under its final name only once it is complete.
+public class StatementWriter {
+    
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter transactionWriter;
+    
+    public StatementWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.transactionWriter = objectMapper.writerFor(TransactionSummary.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+    
+    public void write(Path directory, YearMonth period, StatementAccount account, Iterator<TransactionSummary> transactions)
+            throws IOException {
+        BigDecimal opening = account.openingBalance();
+        BigDecimal closing = opening;
+        Map<String, BigDecimal> totals = new TreeMap<>();
+        
+        Path temporary = directory.resolve(account.accountNumber() + ".json.tmp");
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(temporary.toFile(), JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeStringField("accountNumber", account.accountNumber());
+            json.writeStringField("accountType", account.accountType());
+            json.writeStringField("period", period.toString());
+            json.writeNumberField("openingBalance", opening);
+            json.writeArrayFieldStart("transactions");
+            while (transactions.hasNext()) {
+                TransactionSummary transaction = transactions.next();
+                transactionWriter.writeValue(json, transaction);
+                totals.merge(transaction.type(), transaction.amount(), BigDecimal::add);
+                closing = "DEBIT".equals(transaction.type())
+                        ? closing.subtract(transaction.amount())
+                        : closing.add(transaction.amount());
+            }
+            json.writeEndArray();
+            json.writeObjectFieldStart("totals");
+            for (Map.Entry<String, BigDecimal> total : totals.entrySet()) {
+                json.writeNumberField(total.getKey(), total.getValue());
+            }
+            json.writeEndObject();
+            json.writeNumberField("closingBalance", closing);
+            json.writeEndObject();
+        }
+        Files.move(temporary, directory.resolve(account.accountNumber() + ".json"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
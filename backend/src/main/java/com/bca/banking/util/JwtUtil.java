@@ -1,8 +1,14 @@
 package com.bca.banking.util;
 
+import com.bca.banking.security.BankingPrincipal;
+import com.bca.banking.security.VerifiedClaimsCache;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -11,47 +17,121 @@ import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 import java.util.function.Function;
 
 @Component
 public class JwtUtil {
     
+    private static final String ACCESS_TOKEN = "access";
+    private static final String REFRESH_TOKEN = "refresh";
+    
     @Value("${jwt.secret}")
     private String secret;
     
     @Value("${jwt.expiration}")
     private Long expiration;
     
+    @Value("${jwt.refresh-expiration}")
+    private Long refreshExpiration;
+    
+    @Autowired
+    private VerifiedClaimsCache claimsCache;
+    
+    // Key and parser are immutable and thread-safe, so build them once instead of per call
+    private SecretKey signingKey;
+    private JwtParser parser;
+    
+    @PostConstruct
+    void init() {
+        signingKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        parser = Jwts.parser()
+                .verifyWith(signingKey)
+                .build();
+    }
+    
     private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        return signingKey;
+    }
+    
+    public String generateToken(String username, Long userId, long tokenVersion) {
+        return createToken(claimsFor(userId, tokenVersion, ACCESS_TOKEN), username, expiration);
+    }
+    
+    public String generateRefreshToken(String username, Long userId, long tokenVersion) {
+        return createToken(claimsFor(userId, tokenVersion, REFRESH_TOKEN), username, refreshExpiration);
     }
     
-    public String generateToken(String username, Long userId) {
+    public long getExpirationSeconds() {
+        return expiration / 1000;
+    }
+    
+    private Map<String, Object> claimsFor(Long userId, long tokenVersion, String tokenType) {
         Map<String, Object> claims = new HashMap<>();
         claims.put("userId", userId);
-        return createToken(claims, username);
+        claims.put("ver", tokenVersion);
+        claims.put("typ", tokenType);
+        return claims;
     }
     
-    private String createToken(Map<String, Object> claims, String subject) {
+    private String createToken(Map<String, Object> claims, String subject, long lifetime) {
         return Jwts.builder()
                 .claims(claims)
                 .subject(subject)
+                .id(UUID.randomUUID().toString())
                 .issuedAt(new Date(System.currentTimeMillis()))
-                .expiration(new Date(System.currentTimeMillis() + expiration))
+                .expiration(new Date(System.currentTimeMillis() + lifetime))
                 .signWith(getSigningKey())
                 .compact();
     }
     
+    // Verifies an access token once and returns its principal; repeat calls with the same token hit the cache.
+    // Throws a JwtException if the token is malformed, tampered with, expired or a refresh token.
+    public BankingPrincipal parseToken(String token) {
+        BankingPrincipal cached = claimsCache.get(token);
+        if (cached != null) {
+            return cached;
+        }
+        
+        Claims claims = extractAllClaims(token);
+        if (REFRESH_TOKEN.equals(claims.get("typ", String.class))) {
+            throw new JwtException("Refresh token cannot be used as an access token");
+        }
+        BankingPrincipal principal = toPrincipal(claims);
+        claimsCache.put(token, principal);
+        return principal;
+    }
+    
+    // Refresh tokens are used rarely, so they are verified on every call and never cached
+    public BankingPrincipal parseRefreshToken(String token) {
+        Claims claims = extractAllClaims(token);
+        if (!REFRESH_TOKEN.equals(claims.get("typ", String.class))) {
+            throw new JwtException("Not a refresh token");
+        }
+        return toPrincipal(claims);
+    }
+    
+    private BankingPrincipal toPrincipal(Claims claims) {
+        Long tokenVersion = claims.get("ver", Long.class);
+        return new BankingPrincipal(
+                claims.get("userId", Long.class),
+                claims.getSubject(),
+                claims.getExpiration().toInstant(),
+                claims.getId(),
+                tokenVersion != null ? tokenVersion : 0L
+        );
+    }
+    
     public String extractUsername(String token) {
-        return extractClaim(token, Claims::getSubject);
+        return parseToken(token).username();
     }
     
     public Long extractUserId(String token) {
-        return extractClaim(token, claims -> claims.get("userId", Long.class));
+        return parseToken(token).userId();
     }
     
     public Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
+        return Date.from(parseToken(token).expiresAt());
     }
     
     public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
@@ -60,9 +140,7 @@ public class JwtUtil {
     }
     
     private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
+        return parser
                 .parseSignedClaims(token)
                 .getPayload();
     }
@@ -76,4 +154,3 @@ public class JwtUtil {
         return (tokenUsername.equals(username) && !isTokenExpired(token));
     }
 }
-
@@ -0,0 +1,46 @@
+package com.bca.banking;
+
+import com.bca.banking.model.Account;
+import com.bca.banking.model.User;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.UserRepository;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+// Throwaway users and accounts for tests, each with a unique username and account number
+public class TestAccounts {
+    
+    private final UserRepository userRepository;
+    private final AccountRepository accountRepository;
+    
+    public TestAccounts(UserRepository userRepository, AccountRepository accountRepository) {
+        this.userRepository = userRepository;
+        this.accountRepository = accountRepository;
+    }
+    
+    public User user() {
+        String name = "test-" + UUID.randomUUID();
+        User user = new User();
+        user.setUsername(name);
+        user.setPassword("unused");
+        user.setFirstName("Test");
+        user.setLastName("User");
+        user.setEmail(name + "@bca.test");
+        return userRepository.save(user);
+    }
+    
+    public Account account(User user, String balance) {
+        Account account = new Account();
+        account.setAccountNumber("T" + UUID.randomUUID().toString().replace("-", "").substring(0, 15));
+        account.setAccountType("CHEQUING");
+        account.setBalance(new BigDecimal(balance));
+        account.setUser(user);
+        return accountRepository.save(account);
+    }
+    
+    // Read from the database, including any hot-account slots
+    public BigDecimal balance(Long accountId) {
+        return accountRepository.findById(accountId).orElseThrow().getBalance();
+    }
+}
@@ -0,0 +1,110 @@
+package com.bca.banking.benchmark;
+
+import com.bca.banking.TestAccounts;
+import com.bca.banking.model.User;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.UserRepository;
+import com.bca.banking.service.HotAccountService;
+import com.bca.banking.service.TransferService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Transfers per second into one collecting account from many concurrent payers, each paying from an account of
+// its own, so the only contended balance is the collector's. Run once with a plain collector (every credit waits
+// on its row lock) and once with a hot one spread over balance slots.
+// Run with: mvn test -Pbenchmark -Dtest=HotAccountBenchmark
+@Tag("benchmark")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:hot-account-benchmark;LOCK_TIMEOUT=10000",
+        "spring.jpa.show-sql=false"
+})
+class HotAccountBenchmark {
+    
+    private static final int THREADS = 16;
+    private static final int TRANSFERS_PER_THREAD = 200;
+    private static final int SLOTS = 16;
+    
+    @Autowired
+    private TransferService transferService;
+    
+    @Autowired
+    private HotAccountService hotAccountService;
+    
+    @Autowired
+    private UserRepository userRepository;
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    private TestAccounts testAccounts;
+    private User user;
+    private Long collector;
+    private final List<Long> payers = new ArrayList<>();
+    
+    @BeforeEach
+    void createAccounts() {
+        testAccounts = new TestAccounts(userRepository, accountRepository);
+        user = testAccounts.user();
+        collector = testAccounts.account(user, "0.00").getId();
+        for (int i = 0; i < THREADS; i++) {
+            payers.add(testAccounts.account(user, "1000000.00").getId());
+        }
+    }
+    
+    @Test
+    void plainCollector() throws Exception {
+        run("plain account");
+    }
+    
+    @Test
+    void hotCollector() throws Exception {
+        hotAccountService.enable(collector, SLOTS);
+        run("hot account, " + SLOTS + " slots");
+    }
+    
+    private void run(String label) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger completed = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        for (Long payer : payers) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                        if (transferService.transfer(payer, collector, BigDecimal.ONE, "benchmark", user.getId())) {
+                            completed.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(5, TimeUnit.MINUTES)).isTrue();
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("%-24s %,6d transfers on %d threads in %6.2f s  %,8.0f transfers/s%n",
+                label, completed.get(), THREADS, seconds, completed.get() / seconds);
+        
+        assertThat(errors).isEmpty();
+        assertThat(testAccounts.balance(collector)).isEqualByComparingTo(BigDecimal.valueOf(completed.get()));
+    }
+}
@@ -0,0 +1,129 @@
+package com.bca.banking.benchmark;
+
+import com.bca.banking.TestAccounts;
+import com.bca.banking.dto.TransferRequest;
+import com.bca.banking.model.Account;
+import com.bca.banking.model.Transaction;
+import com.bca.banking.model.User;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.TransactionRepository;
+import com.bca.banking.repository.UserRepository;
+import com.bca.banking.service.TransferService;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Ledger rows inserted per second on the write paths that use pooled sequence ids and JDBC batching:
+// one transfer per request, transfers grouped into a batch request, and a bulk saveAll like DataInitializer's.
+// The bulk path also runs with a JDBC batch size of 1, which is how every insert went out under IDENTITY ids.
+// Run with: mvn test -Pbenchmark -Dtest=LedgerInsertBenchmark
+@Tag("benchmark")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:ledger-insert-benchmark;LOCK_TIMEOUT=10000",
+        "spring.jpa.show-sql=false"
+})
+class LedgerInsertBenchmark {
+    
+    private static final int TRANSFERS = 2_000;
+    private static final int BATCH_SIZE = 100;
+    private static final int BULK_ROWS = 20_000;
+    
+    @Autowired
+    private TransferService transferService;
+    
+    @Autowired
+    private UserRepository userRepository;
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private TransactionRepository transactionRepository;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired
+    private EntityManager entityManager;
+    
+    private User user;
+    private Account from;
+    private Account to;
+    
+    @BeforeEach
+    void createAccounts() {
+        TestAccounts testAccounts = new TestAccounts(userRepository, accountRepository);
+        user = testAccounts.user();
+        from = testAccounts.account(user, "1000000.00");
+        to = testAccounts.account(user, "0.00");
+    }
+    
+    @Test
+    void singleTransfers() {
+        long started = System.nanoTime();
+        for (int i = 0; i < TRANSFERS; i++) {
+            assertThat(transferService.transfer(from.getId(), to.getId(), BigDecimal.ONE, "benchmark", user.getId())).isTrue();
+        }
+        report("transfer, one per call", TRANSFERS * 2, started);
+    }
+    
+    @Test
+    void batchedTransfers() {
+        List<TransferRequest> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            TransferRequest transfer = new TransferRequest();
+            transfer.setFromAccountId(from.getId());
+            transfer.setToAccountId(to.getId());
+            transfer.setAmount(BigDecimal.ONE);
+            transfer.setDescription("benchmark");
+            batch.add(transfer);
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < TRANSFERS / BATCH_SIZE; i++) {
+            transferService.transferBatch(batch, true, user.getId());
+        }
+        report("transferBatch, " + BATCH_SIZE + " per call", TRANSFERS * 2, started);
+    }
+    
+    @Test
+    void bulkInsertBatched() {
+        bulkInsert(50, "saveAll, JDBC batches of 50");
+    }
+    
+    @Test
+    void bulkInsertUnbatched() {
+        bulkInsert(1, "saveAll, one statement per row");
+    }
+    
+    private void bulkInsert(int jdbcBatchSize, String label) {
+        List<Transaction> rows = new ArrayList<>(BULK_ROWS);
+        for (int i = 0; i < BULK_ROWS; i++) {
+            rows.add(new Transaction(null, "DEPOSIT", BigDecimal.ONE, "benchmark", LocalDateTime.now(), from));
+        }
+        long before = transactionRepository.count();
+        long started = System.nanoTime();
+        transactionTemplate.executeWithoutResult(status -> {
+            entityManager.unwrap(Session.class).setJdbcBatchSize(jdbcBatchSize);
+            transactionRepository.saveAll(rows);
+        });
+        report(label, BULK_ROWS, started);
+        assertThat(transactionRepository.count() - before).isEqualTo(BULK_ROWS);
+    }
+    
+    private void report(String label, int rows, long started) {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("%-36s %,8d ledger rows in %6.2f s  %,10.0f rows/s%n", label, rows, seconds, rows / seconds);
+    }
+}
@@ -0,0 +1,142 @@
+package com.bca.banking.benchmark;
+
+import com.bca.banking.dto.AccountView;
+import com.bca.banking.dto.PayeeView;
+import com.bca.banking.dto.TransactionSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Bytes allocated per list response while Jackson writes it, for the shapes the list endpoints used to build
+// (a HashMap per row, LocalDateTime through the java.time module's serializer) against what they send now (typed
+// records through the application ObjectMapper and IsoLocalDateTimeSerializer). Output goes to a discarding stream,
+// so only serialization is counted, not the response buffer.
+// Run with: mvn test -Pbenchmark -Dtest=ResponseAllocationBenchmark
+@Tag("benchmark")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:response-allocation-benchmark",
+        "spring.jpa.show-sql=false"
+})
+class ResponseAllocationBenchmark {
+    
+    private static final int ROWS = 500;
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 2_000;
+    
+    // What the application ObjectMapper replaced: the java.time module's own LocalDateTime serializer
+    private final ObjectMapper defaultMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Test
+    void accounts() throws IOException {
+        List<AccountView> views = new ArrayList<>(ROWS);
+        for (long i = 0; i < ROWS; i++) {
+            views.add(new AccountView(i, "BCA" + (1_000_000_000L + i), "CHEQUING", new BigDecimal("1234.56"), "Account " + i));
+        }
+        compare("accounts", () -> accountMaps(views), defaultMapper, () -> views, objectMapper);
+    }
+    
+    @Test
+    void payees() throws IOException {
+        List<PayeeView> views = new ArrayList<>(ROWS);
+        for (long i = 0; i < ROWS; i++) {
+            views.add(new PayeeView(i, "Payee " + i, "PY" + (100_000_000L + i), "UTILITY"));
+        }
+        compare("payees", () -> payeeMaps(views), defaultMapper, () -> views, objectMapper);
+    }
+    
+    @Test
+    void transactions() throws IOException {
+        List<TransactionSummary> rows = new ArrayList<>(ROWS);
+        LocalDateTime date = LocalDateTime.of(2024, 3, 1, 9, 30, 15, 123_456_000);
+        for (long i = 0; i < ROWS; i++) {
+            rows.add(new TransactionSummary(i, i % 2 == 0 ? "DEBIT" : "CREDIT", new BigDecimal("42.10"),
+                    "Transaction " + i, date.minusMinutes(i)));
+        }
+        compare("transactions", () -> rows, defaultMapper, () -> rows, objectMapper);
+    }
+    
+    // The before side builds its rows inside the measured loop, as the controllers did per request
+    private void compare(String label, ResponseBody before, ObjectMapper beforeMapper,
+                         ResponseBody after, ObjectMapper afterMapper) throws IOException {
+        long beforeBytes = bytesPerResponse(before, beforeMapper);
+        long afterBytes = bytesPerResponse(after, afterMapper);
+        System.out.printf("%-14s %,9d B/response (%,5d B/row) before  %,9d B/response (%,5d B/row) after%n",
+                label, beforeBytes, beforeBytes / ROWS, afterBytes, afterBytes / ROWS);
+        assertThat(afterBytes).isLessThan(beforeBytes);
+    }
+    
+    private long bytesPerResponse(ResponseBody body, ObjectMapper mapper) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        // Unlike OutputStream.nullOutputStream() this one survives the close at the end of each writeValue
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        for (int i = 0; i < WARMUP; i++) {
+            mapper.writeValue(out, body.build());
+        }
+        long thread = Thread.currentThread().getId();
+        long started = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ITERATIONS; i++) {
+            mapper.writeValue(out, body.build());
+        }
+        return (threads.getThreadAllocatedBytes(thread) - started) / ITERATIONS;
+    }
+    
+    private static List<Map<String, Object>> payeeMaps(List<PayeeView> views) {
+        List<Map<String, Object>> maps = new ArrayList<>(views.size());
+        for (PayeeView view : views) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("id", view.id());
+            map.put("name", view.name());
+            map.put("accountNumber", view.accountNumber());
+            map.put("category", view.category());
+            maps.add(map);
+        }
+        return maps;
+    }
+    
+    private static List<Map<String, Object>> accountMaps(List<AccountView> views) {
+        List<Map<String, Object>> maps = new ArrayList<>(views.size());
+        for (AccountView view : views) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("id", view.id());
+            map.put("accountNumber", view.accountNumber());
+            map.put("accountType", view.accountType());
+            map.put("balance", view.balance());
+            map.put("description", view.description());
+            maps.add(map);
+        }
+        return maps;
+    }
+    
+    private interface ResponseBody {
+        Object build();
+    }
+}
@@ -0,0 +1,281 @@
+package com.bca.banking.ledger;
+
+import com.bca.banking.BCABankingApplication;
+import com.bca.banking.TestAccounts;
+import com.bca.banking.ledger.LedgerEngine.Leg;
+import com.bca.banking.model.User;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.UserRepository;
+import com.bca.banking.service.HotAccountService;
+import com.bca.banking.service.TransferService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Runs the application with the ledger engine on, stops it and starts it again over the same files, and over the same
+// database (an in-memory one kept open between the two runs) or an empty one. The restarted engine must come back with
+// the balances it stopped with, whether it recovers from the shutdown snapshot or replays the journal after an older
+// one.
+class LedgerEngineTest {
+    
+    private static final int ACCOUNTS = 4;
+    private static final int TRANSFERS = 200;
+    private static final int HOT_SLOTS = 4;
+    
+    @TempDir
+    Path directory;
+    
+    private final String database = "ledger-engine-" + UUID.randomUUID();
+    
+    @Test
+    void restartReproducesTheBalances() throws Exception {
+        Ledger ledger = runTransfers();
+        try (ConfigurableApplicationContext context = start()) {
+            ledger.check(context);
+        }
+    }
+    
+    // As if the node had died before its shutdown snapshot: recovery starts from an earlier snapshot and replays
+    // the journal records after it
+    @Test
+    void restartFromAnOlderSnapshotReplaysTheJournal() throws Exception {
+        Ledger ledger = runTransfers();
+        List<Path> snapshots = snapshotFiles();
+        assertThat(snapshots).hasSizeGreaterThan(1);
+        Files.delete(snapshots.get(0));
+        try (ConfigurableApplicationContext context = start()) {
+            ledger.check(context);
+        }
+    }
+    
+    // As if the node had lost its in-memory database along with its shutdown snapshot: the users, the accounts (a hot
+    // one with its slots) and the ledger rows all come from the older snapshot, and the journal after it is projected
+    // onto them. Ids handed out afterwards must not collide with the restored ones.
+    @Test
+    void restartOnAnEmptyDatabaseRestoresEverythingFromTheSnapshot() throws Exception {
+        Ledger ledger = runTransfers();
+        Files.delete(snapshotFiles().get(0));
+        try (ConfigurableApplicationContext context = start("ledger-engine-empty-" + UUID.randomUUID())) {
+            ledger.check(context);
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            Long hot = ledger.accountIds.get(0);
+            assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM account_balance_slots WHERE account_id = ?",
+                    Integer.class, hot)).isEqualTo(HOT_SLOTS);
+            
+            TestAccounts testAccounts = testAccounts(context);
+            User user = testAccounts.user();
+            assertThat(user.getId()).isGreaterThan(ledger.userId);
+            Long account = testAccounts.account(user, "1.00").getId();
+            assertThat(account).isGreaterThan(Collections.max(ledger.accountIds));
+            assertThat(context.getBean(TransferService.class).transfer(account, ledger.accountIds.get(1),
+                    new BigDecimal("0.01"), null, user.getId())).isTrue();
+            // Projected in the background, with ids from transactions_seq
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (ledgerRows(jdbcTemplate, account) == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertThat(ledgerRows(jdbcTemplate, account)).isEqualTo(1);
+            assertThat(context.getBean(LedgerProjector.class).failed()).isFalse();
+        }
+    }
+    
+    // Submissions racing a stop either get their outcome or fail at once; none waits forever, and only the
+    // acknowledged movements are in the journal
+    @Test
+    void submitAfterStopFailsInsteadOfHanging() throws Exception {
+        try (ConfigurableApplicationContext context = start()) {
+            LedgerEngine engine = context.getBean(LedgerEngine.class);
+            TestAccounts testAccounts = testAccounts(context);
+            User user = testAccounts.user();
+            Long payer = testAccounts.account(user, "1000000.00").getId();
+            
+            int threads = 8;
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            CountDownLatch started = new CountDownLatch(threads);
+            AtomicBoolean stopped = new AtomicBoolean();
+            AtomicInteger acknowledged = new AtomicInteger();
+            ConcurrentLinkedQueue<Throwable> unexpected = new ConcurrentLinkedQueue<>();
+            for (int t = 0; t < threads; t++) {
+                pool.execute(() -> {
+                    started.countDown();
+                    while (true) {
+                        try {
+                            List<String> errors = engine.submit(user.getId(), List.of(new Leg(payer, null, new BigDecimal("0.01"), "bill")), true);
+                            if (errors.get(0) == null) {
+                                acknowledged.incrementAndGet();
+                            }
+                        } catch (IllegalStateException e) {
+                            if (stopped.get()) {
+                                return;
+                            }
+                            unexpected.add(e);
+                            return;
+                        } catch (Throwable e) {
+                            unexpected.add(e);
+                            return;
+                        }
+                    }
+                });
+            }
+            assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+            Thread.sleep(200);
+            stopped.set(true);
+            engine.stop();
+            pool.shutdown();
+            assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).as("submitters finished").isTrue();
+            
+            assertThat(unexpected).isEmpty();
+            assertThat(acknowledged.get()).isPositive();
+            AtomicInteger journaled = new AtomicInteger();
+            try (LedgerJournal journal = new LedgerJournal(directory.resolve("ledger.journal"), false, 0, 0, entry -> {
+                if (payer.equals(entry.debitAccountId())) {
+                    journaled.incrementAndGet();
+                }
+            })) {
+                assertThat(journaled.get()).isEqualTo(acknowledged.get());
+            }
+        }
+    }
+    
+    // Random transfers through the engine, checked one by one against a model of the balances; returns the model
+    // once the application has shut down
+    private Ledger runTransfers() {
+        try (ConfigurableApplicationContext context = start()) {
+            TestAccounts testAccounts = testAccounts(context);
+            TransferService transferService = context.getBean(TransferService.class);
+            User user = testAccounts.user();
+            Ledger ledger = new Ledger(user.getId());
+            for (int i = 0; i < ACCOUNTS; i++) {
+                ledger.open(testAccounts.account(user, "500.00").getId(), new BigDecimal("500.00"));
+            }
+            context.getBean(HotAccountService.class).enable(ledger.accountIds.get(0), HOT_SLOTS);
+            
+            Random random = new Random(42);
+            for (int i = 0; i < TRANSFERS; i++) {
+                Long from = ledger.accountIds.get(random.nextInt(ACCOUNTS));
+                Long to = ledger.accountIds.get(random.nextInt(ACCOUNTS));
+                if (from.equals(to)) {
+                    continue;
+                }
+                BigDecimal amount = BigDecimal.valueOf(random.nextInt(1, 30000), 2);
+                boolean covered = ledger.balances.get(from).compareTo(amount) >= 0;
+                assertThat(transferService.transfer(from, to, amount, null, user.getId()))
+                        .as("transfer %d of %s", i, amount).isEqualTo(covered);
+                if (covered) {
+                    ledger.move(from, to, amount);
+                }
+            }
+            return ledger;
+        }
+    }
+    
+    private ConfigurableApplicationContext start() {
+        return start(database);
+    }
+    
+    // As command-line arguments, which take precedence over application.properties
+    private ConfigurableApplicationContext start(String database) {
+        return new SpringApplicationBuilder(BCABankingApplication.class).run(
+                "--spring.datasource.url=jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+                // The schema and rows must outlive the first run
+                "--spring.jpa.hibernate.ddl-auto=update",
+                "--spring.jpa.show-sql=false",
+                "--server.port=0",
+                "--banking.ledger.engine.enabled=true",
+                "--banking.ledger.engine.fsync=false",
+                "--banking.ledger.engine.journal-path=" + directory.resolve("ledger.journal"),
+                "--banking.ledger.snapshot.directory=" + directory.resolve("snapshots"),
+                "--banking.ledger.snapshot.every-entries=50",
+                "--banking.statements.directory=" + directory.resolve("statements"));
+    }
+    
+    // Newest first
+    private List<Path> snapshotFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("snapshots"))) {
+            return files.sorted(Comparator.comparing((Path file) -> file.getFileName().toString()).reversed()).toList();
+        }
+    }
+    
+    private static int ledgerRows(JdbcTemplate jdbcTemplate, Long accountId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM transactions WHERE account_id = ?", Integer.class, accountId);
+    }
+    
+    private static TestAccounts testAccounts(ConfigurableApplicationContext context) {
+        return new TestAccounts(context.getBean(UserRepository.class), context.getBean(AccountRepository.class));
+    }
+    
+    private static final class Ledger {
+        private final Long userId;
+        private final List<Long> accountIds = new ArrayList<>();
+        private final Map<Long, BigDecimal> opening = new HashMap<>();
+        private final Map<Long, BigDecimal> balances = new HashMap<>();
+        
+        private Ledger(Long userId) {
+            this.userId = userId;
+        }
+        
+        private void open(Long accountId, BigDecimal balance) {
+            accountIds.add(accountId);
+            opening.put(accountId, balance);
+            balances.put(accountId, balance);
+        }
+        
+        private void move(Long from, Long to, BigDecimal amount) {
+            balances.merge(from, amount.negate(), BigDecimal::add);
+            balances.merge(to, amount, BigDecimal::add);
+        }
+        
+        // The tables hold the model's balances and ledger rows, and the engine's own balances agree: each account
+        // can pay out exactly what the model says it holds, and not a cent more
+        private void check(ConfigurableApplicationContext context) {
+            TestAccounts testAccounts = testAccounts(context);
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            LedgerEngine engine = context.getBean(LedgerEngine.class);
+            for (Long accountId : accountIds) {
+                BigDecimal balance = balances.get(accountId);
+                assertThat(testAccounts.balance(accountId)).as("balance of account %d", accountId).isEqualByComparingTo(balance);
+                BigDecimal net = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(CASE WHEN type = 'DEBIT' THEN -amount ELSE amount END), 0) "
+                        + "FROM transactions WHERE account_id = ?", BigDecimal.class, accountId);
+                assertThat(opening.get(accountId).add(net)).as("ledger of account %d", accountId).isEqualByComparingTo(balance);
+            }
+            for (Long accountId : accountIds) {
+                BigDecimal balance = balances.get(accountId);
+                assertThat(engine.submit(userId, List.of(new Leg(accountId, null, new BigDecimal("0.01"), "probe")), true).get(0))
+                        .as("engine balance of account %d", accountId)
+                        .isEqualTo(balance.signum() > 0 ? null : "Insufficient balance");
+                if (balance.compareTo(new BigDecimal("0.01")) > 0) {
+                    BigDecimal rest = balance.subtract(new BigDecimal("0.01"));
+                    assertThat(engine.submit(userId, List.of(new Leg(accountId, null, rest.add(new BigDecimal("0.01")), "probe")), true).get(0))
+                            .as("engine balance of account %d", accountId).isEqualTo("Insufficient balance");
+                    assertThat(engine.submit(userId, List.of(new Leg(accountId, null, rest, "probe")), true).get(0))
+                            .as("engine balance of account %d", accountId).isNull();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.bca.banking.ledger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// A crash can leave the last record half written or garbled. Opening the journal must replay every record before
+// it, cut the bad tail off, and carry on appending from the last good sequence.
+class LedgerJournalTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void truncatedLastRecordIsDroppedAndEarlierRecordsReplay() throws IOException {
+        Path path = directory.resolve("ledger.journal");
+        long intactEnd = writeThreeRecords(path)[1];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+        
+        assertReopensAfterTwoRecords(path, intactEnd);
+    }
+    
+    @Test
+    void corruptLastRecordIsDroppedAndEarlierRecordsReplay() throws IOException {
+        Path path = directory.resolve("ledger.journal");
+        long intactEnd = writeThreeRecords(path)[1];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // A byte inside the last record's payload, past its length prefix; the checksum no longer matches
+            long position = intactEnd + 12;
+            ByteBuffer original = ByteBuffer.allocate(1);
+            channel.read(original, position);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (original.get(0) ^ 0x5A)}), position);
+        }
+        
+        assertReopensAfterTwoRecords(path, intactEnd);
+    }
+    
+    // Recovery from a snapshot opens the journal at the snapshot's offset and sequence
+    @Test
+    void replayStartsAtTheGivenOffset() throws IOException {
+        Path path = directory.resolve("ledger.journal");
+        long firstEnd = writeThreeRecords(path)[0];
+        
+        List<JournalEntry> replayed = new ArrayList<>();
+        try (LedgerJournal journal = new LedgerJournal(path, false, firstEnd, 1, replayed::add)) {
+            assertThat(replayed).containsExactly(entry(2, "20.00"), entry(3, "30.00"));
+            assertThat(journal.lastSequence()).isEqualTo(3);
+            assertThat(journal.position()).isEqualTo(Files.size(path));
+        }
+    }
+    
+    // Returns the offsets just past the first and the second record
+    private long[] writeThreeRecords(Path path) throws IOException {
+        try (LedgerJournal journal = new LedgerJournal(path, false, 0, 0, entry -> { })) {
+            journal.append(List.of(entry(1, "10.00")));
+            long firstEnd = journal.position();
+            journal.append(List.of(entry(2, "20.00")));
+            long secondEnd = journal.position();
+            journal.append(List.of(entry(3, "30.00")));
+            return new long[]{firstEnd, secondEnd};
+        }
+    }
+    
+    private void assertReopensAfterTwoRecords(Path path, long intactEnd) throws IOException {
+        List<JournalEntry> replayed = new ArrayList<>();
+        try (LedgerJournal journal = new LedgerJournal(path, false, 0, 0, replayed::add)) {
+            assertThat(replayed).containsExactly(entry(1, "10.00"), entry(2, "20.00"));
+            assertThat(journal.lastSequence()).isEqualTo(2);
+            assertThat(journal.position()).isEqualTo(intactEnd);
+            assertThat(Files.size(path)).isEqualTo(intactEnd);
+            journal.append(List.of(entry(3, "31.00")));
+        }
+        
+        replayed.clear();
+        try (LedgerJournal journal = new LedgerJournal(path, false, 0, 0, replayed::add)) {
+            assertThat(replayed).containsExactly(entry(1, "10.00"), entry(2, "20.00"), entry(3, "31.00"));
+        }
+    }
+    
+    private static JournalEntry entry(long sequence, String amount) {
+        return new JournalEntry(sequence, 1_700_000_000_000L + sequence, 1L, 2L, new BigDecimal(amount),
+                "Transfer to 2", "Transfer from 1");
+    }
+}
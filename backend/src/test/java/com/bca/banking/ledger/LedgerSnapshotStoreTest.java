@@ -0,0 +1,123 @@
+package com.bca.banking.ledger;
+
+import com.bca.banking.ledger.LedgerSnapshot.SnapshotAccount;
+import com.bca.banking.ledger.LedgerSnapshot.SnapshotTransaction;
+import com.bca.banking.ledger.LedgerSnapshot.SnapshotUser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Snapshots round-trip their users, accounts and ledger rows, and a damaged newest snapshot gives way to the older one
+class LedgerSnapshotStoreTest {
+    
+    private static final LocalDateTime DATE = LocalDateTime.of(2024, 3, 1, 9, 30, 15, 250_000_000);
+    private static final SnapshotUser FIRST_USER = new SnapshotUser(7, "alice", "{bcrypt}hash", "Alice", "Tan",
+            "alice@bca.test", 3, Instant.ofEpochSecond(1_700_000_000L, 123_456_000));
+    private static final SnapshotUser SECOND_USER = new SnapshotUser(8, "bob", "{bcrypt}hash", "Bob", "Lim", null, 0, null);
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void snapshotRoundTrips() throws IOException {
+        LedgerSnapshotStore store = new LedgerSnapshotStore(directory, 2);
+        write(store, 10, "100.00");
+        
+        LedgerSnapshot snapshot = store.latest().orElseThrow();
+        assertThat(snapshot.sequence()).isEqualTo(10);
+        assertThat(snapshot.journalOffset()).isEqualTo(1000);
+        assertThat(snapshot.accounts()).containsOnlyKeys(1L, 2L);
+        assertThat(snapshot.accounts().get(1L)).isEqualTo(
+                new SnapshotAccount(1, 7, "BCA0000001", "CHEQUING", "Main account", 0, new BigDecimal("100.00")));
+        assertThat(snapshot.accounts().get(2L)).isEqualTo(
+                new SnapshotAccount(2, 8, "BCA0000002", "SAVINGS", null, 4, new BigDecimal("20.00")));
+        assertThat(snapshot.userCount()).isEqualTo(2);
+        List<SnapshotUser> users = new ArrayList<>();
+        store.readUsers(snapshot, users::add);
+        assertThat(users).containsExactly(FIRST_USER, SECOND_USER);
+        assertThat(transactions(store, snapshot)).containsExactly(
+                new SnapshotTransaction(5, 1, "DEBIT", new BigDecimal("10.00"), "Transfer to BCA0000002", DATE),
+                new SnapshotTransaction(6, 2, "CREDIT", new BigDecimal("10.00"), null, DATE));
+    }
+    
+    @Test
+    void corruptNewestSnapshotFallsBackToTheOlderOne() throws IOException {
+        LedgerSnapshotStore store = new LedgerSnapshotStore(directory, 2);
+        write(store, 10, "100.00");
+        write(store, 20, "80.00");
+        Path newest = snapshotFile(20);
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = channel.size() / 2;
+            ByteBuffer original = ByteBuffer.allocate(1);
+            channel.read(original, position);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (original.get(0) ^ 0x5A)}), position);
+        }
+        
+        LedgerSnapshot snapshot = store.latest().orElseThrow();
+        assertThat(snapshot.sequence()).isEqualTo(10);
+        assertThat(snapshot.accounts().get(1L).balance()).isEqualByComparingTo("100.00");
+        assertThat(transactions(store, snapshot)).hasSize(2);
+    }
+    
+    @Test
+    void truncatedNewestSnapshotFallsBackToTheOlderOne() throws IOException {
+        LedgerSnapshotStore store = new LedgerSnapshotStore(directory, 2);
+        write(store, 10, "100.00");
+        write(store, 20, "80.00");
+        try (FileChannel channel = FileChannel.open(snapshotFile(20), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        
+        assertThat(store.latest().orElseThrow().sequence()).isEqualTo(10);
+    }
+    
+    @Test
+    void onlyTheNewestSnapshotsAreKept() throws IOException {
+        LedgerSnapshotStore store = new LedgerSnapshotStore(directory, 2);
+        write(store, 10, "100.00");
+        write(store, 20, "90.00");
+        write(store, 30, "80.00");
+        
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.map(file -> file.getFileName().toString()).sorted())
+                    .containsExactly(snapshotFile(20).getFileName().toString(), snapshotFile(30).getFileName().toString());
+        }
+        assertThat(store.latest().orElseThrow().accounts().get(1L).balance()).isEqualByComparingTo("80.00");
+    }
+    
+    private void write(LedgerSnapshotStore store, long sequence, String firstBalance) throws IOException {
+        try (LedgerSnapshotStore.Writer writer = store.create(sequence, sequence * 100, 1_700_000_000_000L)) {
+            writer.user(FIRST_USER);
+            writer.user(SECOND_USER);
+            writer.account(new SnapshotAccount(1, 7, "BCA0000001", "CHEQUING", "Main account", 0, new BigDecimal(firstBalance)));
+            writer.account(new SnapshotAccount(2, 8, "BCA0000002", "SAVINGS", null, 4, new BigDecimal("20.00")));
+            writer.transaction(new SnapshotTransaction(5, 1, "DEBIT", new BigDecimal("10.00"), "Transfer to BCA0000002", DATE));
+            writer.transaction(new SnapshotTransaction(6, 2, "CREDIT", new BigDecimal("10.00"), null, DATE));
+            writer.commit();
+        }
+    }
+    
+    private Path snapshotFile(long sequence) {
+        return directory.resolve(String.format("ledger-%019d.snapshot", sequence));
+    }
+    
+    private static List<SnapshotTransaction> transactions(LedgerSnapshotStore store, LedgerSnapshot snapshot) throws IOException {
+        List<SnapshotTransaction> transactions = new ArrayList<>();
+        store.readTransactions(snapshot, transactions::add);
+        return transactions;
+    }
+}
@@ -0,0 +1,88 @@
+package com.bca.banking.service;
+
+import com.bca.banking.TestAccounts;
+import com.bca.banking.dto.AccountView;
+import com.bca.banking.dto.TransferRequest;
+import com.bca.banking.model.User;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Cached account lists must show every committed balance change, whichever path wrote it, and the cache must stay
+// within its size limit
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:account-cache;LOCK_TIMEOUT=10000",
+        "spring.jpa.show-sql=false",
+        "banking.accounts.cache.max-users=5"
+})
+class AccountServiceCacheTest {
+    
+    @Autowired
+    private AccountService accountService;
+    
+    @Autowired
+    private TransferService transferService;
+    
+    @Autowired
+    private UserRepository userRepository;
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    private TestAccounts testAccounts;
+    
+    @BeforeEach
+    void createHelper() {
+        testAccounts = new TestAccounts(userRepository, accountRepository);
+    }
+    
+    @Test
+    void batchTransferIsVisibleToTheNextBalanceRead() {
+        User payer = testAccounts.user();
+        User payee = testAccounts.user();
+        Long from = testAccounts.account(payer, "100.00").getId();
+        Long to = testAccounts.account(payee, "0.00").getId();
+        // Both owners' lists are cached before the transfer
+        assertThat(balance(payer, from)).isEqualByComparingTo("100.00");
+        assertThat(balance(payee, to)).isEqualByComparingTo("0.00");
+        
+        TransferRequest transfer = new TransferRequest();
+        transfer.setFromAccountId(from);
+        transfer.setToAccountId(to);
+        transfer.setAmount(new BigDecimal("30.00"));
+        transferService.transferBatch(List.of(transfer, transfer), true, payer.getId());
+        
+        assertThat(balance(payer, from)).isEqualByComparingTo("40.00");
+        assertThat(balance(payee, to)).isEqualByComparingTo("60.00");
+    }
+    
+    @Test
+    void cacheStaysWithinMaxUsers() {
+        for (int i = 0; i < 12; i++) {
+            User user = testAccounts.user();
+            testAccounts.account(user, "1.00");
+            assertThat(accountService.getAccountsByUserId(user.getId())).hasSize(1);
+        }
+        assertThat(meterRegistry.get("accounts.cache.users").gauge().value()).isLessThanOrEqualTo(5);
+    }
+    
+    private BigDecimal balance(User user, Long accountId) {
+        return accountService.getAccountsByUserId(user.getId()).stream()
+                .filter(account -> account.id().equals(accountId))
+                .map(AccountView::balance)
+                .findFirst()
+                .orElseThrow();
+    }
+}
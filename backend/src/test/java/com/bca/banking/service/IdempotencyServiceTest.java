@@ -0,0 +1,94 @@
+package com.bca.banking.service;
+
+import com.bca.banking.TestAccounts;
+import com.bca.banking.controller.TransferController;
+import com.bca.banking.dto.TransferRequest;
+import com.bca.banking.model.User;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.UserRepository;
+import com.bca.banking.security.BankingPrincipal;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// A keyed transfer that times out on a row lock runs inside the transaction IdempotencyService opened, so the whole
+// request must be retried there: the transfer applies exactly once and the stored response is the successful one
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:idempotency;LOCK_TIMEOUT=300",
+        "spring.jpa.show-sql=false"
+})
+class IdempotencyServiceTest {
+    
+    @Autowired
+    private TransferController transferController;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private UserRepository userRepository;
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    private TestAccounts testAccounts;
+    
+    @BeforeEach
+    void createHelper() {
+        testAccounts = new TestAccounts(userRepository, accountRepository);
+    }
+    
+    @Test
+    void keyedTransferIsRetriedAfterALockTimeout() throws Exception {
+        User user = testAccounts.user();
+        Long from = testAccounts.account(user, "100.00").getId();
+        Long to = testAccounts.account(user, "0.00").getId();
+        
+        // Holds the payer's row for longer than one lock wait, so the first attempt times out and a later one succeeds
+        CountDownLatch locked = new CountDownLatch(1);
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForList("SELECT id FROM accounts WHERE id = ? FOR UPDATE", from);
+            locked.countDown();
+            try {
+                Thread.sleep(700);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertThat(locked.await(10, TimeUnit.SECONDS)).isTrue();
+        
+        TransferRequest request = new TransferRequest();
+        request.setFromAccountId(from);
+        request.setToAccountId(to);
+        request.setAmount(new BigDecimal("25.00"));
+        BankingPrincipal principal = new BankingPrincipal(user.getId(), user.getUsername(),
+                Instant.now().plusSeconds(3600), null, 0);
+        ResponseEntity<?> response = transferController.transfer(request, "retry-after-lock-timeout", principal);
+        holder.get(10, TimeUnit.SECONDS);
+        
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(testAccounts.balance(from)).isEqualByComparingTo("75.00");
+        assertThat(testAccounts.balance(to)).isEqualByComparingTo("25.00");
+        Integer ledgerRows = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM transactions WHERE account_id IN (?, ?)", Integer.class, from, to);
+        assertThat(ledgerRows).isEqualTo(2);
+        Integer stored = jdbcTemplate.queryForObject(
+                "SELECT response_status FROM idempotency_keys WHERE user_id = ?", Integer.class, user.getId());
+        assertThat(stored).isEqualTo(200);
+    }
+}
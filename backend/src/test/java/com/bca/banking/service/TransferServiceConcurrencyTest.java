@@ -0,0 +1,172 @@
+package com.bca.banking.service;
+
+import com.bca.banking.TestAccounts;
+import com.bca.banking.controller.TransferController;
+import com.bca.banking.dto.TransferRequest;
+import com.bca.banking.model.Account;
+import com.bca.banking.model.User;
+import com.bca.banking.repository.AccountRepository;
+import com.bca.banking.repository.UserRepository;
+import com.bca.banking.security.BankingPrincipal;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Hundreds of concurrent transfers in both directions between a small set of accounts, one of them hot, so most
+// transfers contend on a row and many are refused for lack of funds. Money must be conserved, no balance may go
+// negative, and every account's ledger rows must explain its balance. Run once against the service and once with
+// an Idempotency-Key through the controller; each run prints its throughput in completed transfers per second.
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:transfer-concurrency;LOCK_TIMEOUT=10000",
+        "spring.jpa.show-sql=false"
+})
+class TransferServiceConcurrencyTest {
+    
+    private static final int ACCOUNTS = 6;
+    private static final int THREADS = 16;
+    private static final int TRANSFERS_PER_THREAD = 50;
+    
+    @Autowired
+    private TransferService transferService;
+    
+    @Autowired
+    private TransferController transferController;
+    
+    @Autowired
+    private HotAccountService hotAccountService;
+    
+    @Autowired
+    private UserRepository userRepository;
+    
+    @Autowired
+    private AccountRepository accountRepository;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    private TestAccounts testAccounts;
+    private User user;
+    private final List<Long> accountIds = new ArrayList<>();
+    
+    @BeforeEach
+    void createAccounts() {
+        testAccounts = new TestAccounts(userRepository, accountRepository);
+        user = testAccounts.user();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            Account account = testAccounts.account(user, "1000.00");
+            accountIds.add(account.getId());
+        }
+        hotAccountService.enable(accountIds.get(0), 4);
+    }
+    
+    @Test
+    void concurrentTransfersConserveMoney() throws Exception {
+        run("service", (from, to, amount) -> transferService.transfer(from, to, amount, null, user.getId()));
+    }
+    
+    // Through the controller with an Idempotency-Key, so each transfer joins the transaction IdempotencyService opens
+    // and a lock conflict has to be retried there rather than inside TransferService
+    @Test
+    void concurrentKeyedTransfersConserveMoney() throws Exception {
+        BankingPrincipal principal = new BankingPrincipal(user.getId(), user.getUsername(),
+                Instant.now().plusSeconds(3600), null, 0);
+        AtomicInteger answered = new AtomicInteger();
+        run("keyed, via controller", (from, to, amount) -> {
+            TransferRequest request = new TransferRequest();
+            request.setFromAccountId(from);
+            request.setToAccountId(to);
+            request.setAmount(amount);
+            ResponseEntity<?> response = transferController.transfer(request, UUID.randomUUID().toString(), principal);
+            int status = response.getStatusCode().value();
+            if (status != 200 && status != 400) {
+                throw new AssertionError("Transfer answered " + status + ": " + response.getBody());
+            }
+            answered.incrementAndGet();
+            return status == 200;
+        });
+        Integer recorded = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM idempotency_keys WHERE user_id = ? AND response_status IS NOT NULL", Integer.class, user.getId());
+        assertThat(recorded).isEqualTo(answered.get());
+    }
+    
+    private void run(String label, Transfer transfer) throws Exception {
+        BigDecimal totalBefore = total();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger completed = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        
+        for (int t = 0; t < THREADS; t++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                        Long from = accountIds.get(random.nextInt(ACCOUNTS));
+                        Long to = accountIds.get(random.nextInt(ACCOUNTS));
+                        if (from.equals(to)) {
+                            continue;
+                        }
+                        BigDecimal amount = BigDecimal.valueOf(random.nextInt(1, 40000), 2);
+                        // Any lock failure escaping the service is a defect and fails the test through errors
+                        if (transfer.apply(from, to, amount)) {
+                            completed.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(2, TimeUnit.MINUTES)).isTrue();
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("%-24s %,6d transfers completed on %d threads in %6.2f s  %,8.0f transfers/s%n",
+                label, completed.get(), THREADS, seconds, completed.get() / seconds);
+        
+        assertThat(errors).isEmpty();
+        assertThat(completed.get()).isPositive();
+        assertThat(total()).isEqualByComparingTo(totalBefore);
+        for (Long accountId : accountIds) {
+            BigDecimal balance = testAccounts.balance(accountId);
+            assertThat(balance.signum()).as("balance of account %d", accountId).isGreaterThanOrEqualTo(0);
+            assertThat(balance).as("ledger of account %d", accountId).isEqualByComparingTo(new BigDecimal("1000.00").add(ledgerNet(accountId)));
+        }
+        Integer negativeSlots = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM account_balance_slots WHERE account_id = ? AND balance < 0", Integer.class, accountIds.get(0));
+        assertThat(negativeSlots).isZero();
+    }
+    
+    private BigDecimal total() {
+        return accountIds.stream().map(testAccounts::balance).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+    
+    private BigDecimal ledgerNet(Long accountId) {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(SUM(CASE WHEN type = 'DEBIT' THEN -amount ELSE amount END), 0) "
+                + "FROM transactions WHERE account_id = ?", BigDecimal.class, accountId);
+    }
+    
+    private interface Transfer {
+        boolean apply(Long from, Long to, BigDecimal amount);
+    }
+}
@@ -11,6 +11,8 @@ void main() {
 class BCAApp extends StatelessWidget {
   const BCAApp({super.key});
 
+  static final GlobalKey<NavigatorState> navigatorKey = GlobalKey<NavigatorState>();
+
   @override
   Widget build(BuildContext context) {
     return MultiProvider(
@@ -18,6 +20,7 @@ class BCAApp extends StatelessWidget {
         ChangeNotifierProvider(create: (_) => AuthProvider()),
       ],
       child: MaterialApp(
+        navigatorKey: navigatorKey,
         title: 'BCA Mobile Banking',
         theme: ThemeData(
           primarySwatch: Colors.green,
@@ -52,9 +55,12 @@ class AuthWrapper extends StatelessWidget {
       builder: (context, authProvider, _) {
         if (authProvider.isAuthenticated) {
           return const DashboardScreen();
-        } else {
-          return const LoginScreen();
         }
+        // Screens pushed over the dashboard would otherwise stay on top of the login screen after a session ends
+        WidgetsBinding.instance.addPostFrameCallback((_) {
+          BCAApp.navigatorKey.currentState?.popUntil((route) => route.isFirst);
+        });
+        return const LoginScreen();
       },
     );
   }
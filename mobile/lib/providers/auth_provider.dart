@@ -1,3 +1,4 @@
+import 'dart:async';
 import 'package:flutter/foundation.dart';
 import '../services/auth_service.dart';
 
@@ -11,10 +12,31 @@ class AuthProvider with ChangeNotifier {
   String? get userId => _userId;
   String? get username => _username;
 
+  StreamSubscription<void>? _sessionExpiredSubscription;
+
   AuthProvider() {
+    _sessionExpiredSubscription = AuthService.sessionExpired.listen((_) => _onSessionExpired());
     _checkAuthStatus();
   }
 
+  // The refresh token was rejected; AuthWrapper takes the user back to the login screen
+  void _onSessionExpired() {
+    if (!_isAuthenticated) {
+      return;
+    }
+    _isAuthenticated = false;
+    _userId = null;
+    _username = null;
+    _errorMessage = 'Your session has expired. Please log in again.';
+    notifyListeners();
+  }
+
+  @override
+  void dispose() {
+    _sessionExpiredSubscription?.cancel();
+    super.dispose();
+  }
+
   Future<void> _checkAuthStatus() async {
     final token = await _authService.getToken();
     final userId = await _authService.getUserId();
@@ -31,6 +53,7 @@ class AuthProvider with ChangeNotifier {
       _isAuthenticated = true;
       _userId = result['data']['userId'].toString();
       _username = username;
+      _errorMessage = null;
       notifyListeners();
       return true;
     }
@@ -48,6 +71,7 @@ class AuthProvider with ChangeNotifier {
     _isAuthenticated = false;
     _userId = null;
     _username = null;
+    _errorMessage = null;
     notifyListeners();
   }
 }
@@ -18,24 +18,49 @@ class DashboardScreen extends StatefulWidget {
 
 class _DashboardScreenState extends State<DashboardScreen> {
   final ApiService _apiService = ApiService();
+  Map<String, dynamic>? _profile;
   List<dynamic> _accounts = [];
+  List<dynamic> _recentTransactions = [];
+  List<dynamic> _payees = [];
+  // Sections the server could not load in time; shown as unavailable until
+  // the next refresh rather than fetched again one by one
+  List<dynamic> _unavailable = [];
   bool _isLoading = true;
 
   @override
   void initState() {
     super.initState();
-    _loadAccounts();
+    _loadDashboard();
   }
 
-  Future<void> _loadAccounts() async {
+  Future<void> _loadDashboard() async {
     setState(() {
       _isLoading = true;
     });
 
-    final result = await _apiService.getAccounts();
+    final result = await _apiService.getDashboard();
     if (result['success'] == true) {
+      final data = result['data'];
       setState(() {
-        _accounts = result['data'] ?? [];
+        _profile = data['profile'];
+        _accounts = data['accounts'] ?? [];
+        _recentTransactions = data['recentTransactions'] ?? [];
+        _payees = data['payees'] ?? [];
+        _unavailable = data['unavailable'] ?? [];
+        _isLoading = false;
+      });
+      return;
+    }
+    // The dashboard request itself failed; the accounts are what the screen
+    // cannot do without
+    final accounts = await _apiService.getAccounts();
+    if (accounts['success'] == true) {
+      setState(() {
+        _profile = null;
+        _accounts = accounts['data'] ?? [];
+        _recentTransactions = [];
+        _payees = [];
+        _unavailable = ['profile', 'recentTransactions', 'payees'];
         _isLoading = false;
       });
     } else {
@@ -44,12 +69,23 @@ class _DashboardScreenState extends State<DashboardScreen> {
       });
       if (mounted) {
         ScaffoldMessenger.of(context).showSnackBar(
-          SnackBar(content: Text(result['message'] ?? 'Failed to load accounts')),
+          SnackBar(content: Text(accounts['message'] ?? 'Failed to load accounts')),
         );
       }
     }
   }
 
+  Widget _sectionMessage(String message) {
+    return Card(
+      child: Padding(
+        padding: const EdgeInsets.all(24),
+        child: Center(
+          child: Text(message),
+        ),
+      ),
+    );
+  }
+
   Future<void> _handleLogout() async {
     final authProvider = Provider.of<AuthProvider>(context, listen: false);
     await authProvider.logout();
@@ -73,7 +109,7 @@ class _DashboardScreenState extends State<DashboardScreen> {
       body: _isLoading
           ? const Center(child: CircularProgressIndicator())
           : RefreshIndicator(
-              onRefresh: _loadAccounts,
+              onRefresh: _loadDashboard,
               child: SingleChildScrollView(
                 physics: const AlwaysScrollableScrollPhysics(),
                 padding: const EdgeInsets.all(16),
@@ -96,7 +132,7 @@ class _DashboardScreenState extends State<DashboardScreen> {
                             ),
                             const SizedBox(height: 4),
                             Text(
-                              authProvider.username ?? 'User',
+                              _profile?['firstName'] ?? authProvider.username ?? 'User',
                               style: const TextStyle(
                                 fontSize: 24,
                                 fontWeight: FontWeight.bold,
@@ -123,15 +159,10 @@ class _DashboardScreenState extends State<DashboardScreen> {
                       ),
                     ),
                     const SizedBox(height: 16),
-                    if (_accounts.isEmpty)
-                      const Card(
-                        child: Padding(
-                          padding: EdgeInsets.all(24),
-                          child: Center(
-                            child: Text('No accounts found'),
-                          ),
-                        ),
-                      )
+                    if (_unavailable.contains('accounts'))
+                      _sectionMessage('Accounts are unavailable right now. Pull to refresh.')
+                    else if (_accounts.isEmpty)
+                      _sectionMessage('No accounts found')
                     else
                       ..._accounts.map((account) => Card(
                             margin: const EdgeInsets.only(bottom: 12),
@@ -169,6 +200,97 @@ class _DashboardScreenState extends State<DashboardScreen> {
                             ),
                           )),
                     const SizedBox(height: 24),
+                    const Text(
+                      'Recent Transactions',
+                      style: TextStyle(
+                        fontSize: 20,
+                        fontWeight: FontWeight.bold,
+                      ),
+                    ),
+                    const SizedBox(height: 16),
+                    if (_unavailable.contains('recentTransactions'))
+                      _sectionMessage('Recent transactions are unavailable right now.')
+                    else if (_recentTransactions.isEmpty)
+                      _sectionMessage('No transactions found')
+                    else
+                      ..._recentTransactions.map((transaction) {
+                        final isCredit = transaction['type'] == 'CREDIT' ||
+                            transaction['type'] == 'DEPOSIT';
+                        final amount = transaction['amount'] ?? 0.0;
+
+                        return Card(
+                          margin: const EdgeInsets.only(bottom: 8),
+                          child: ListTile(
+                            leading: CircleAvatar(
+                              backgroundColor: isCredit
+                                  ? Colors.green.shade100
+                                  : Colors.red.shade100,
+                              child: Icon(
+                                isCredit ? Icons.arrow_downward : Icons.arrow_upward,
+                                color: isCredit ? Colors.green : Colors.red,
+                              ),
+                            ),
+                            title: Text(
+                              transaction['description'] ?? 'Transaction',
+                              style: const TextStyle(fontWeight: FontWeight.bold),
+                            ),
+                            subtitle: Text(
+                              DateFormat('MMM d, y • h:mm a').format(
+                                DateTime.parse(transaction['date'] ?? DateTime.now().toIso8601String()),
+                              ),
+                            ),
+                            trailing: Text(
+                              '${isCredit ? '+' : '-'}\$${NumberFormat('#,##0.00').format(amount)}',
+                              style: TextStyle(
+                                fontSize: 16,
+                                fontWeight: FontWeight.bold,
+                                color: isCredit ? Colors.green : Colors.red,
+                              ),
+                            ),
+                          ),
+                        );
+                      }),
+                    const SizedBox(height: 24),
+                    const Text(
+                      'Payees',
+                      style: TextStyle(
+                        fontSize: 20,
+                        fontWeight: FontWeight.bold,
+                      ),
+                    ),
+                    const SizedBox(height: 16),
+                    if (_unavailable.contains('payees'))
+                      _sectionMessage('Payees are unavailable right now.')
+                    else if (_payees.isEmpty)
+                      _sectionMessage('No payees found')
+                    else
+                      ..._payees.map((payee) => Card(
+                            margin: const EdgeInsets.only(bottom: 8),
+                            child: ListTile(
+                              leading: const CircleAvatar(
+                                backgroundColor: Color(0xFF2E7D32),
+                                child: Icon(Icons.receipt, color: Colors.white),
+                              ),
+                              title: Text(
+                                payee['name'] ?? 'Payee',
+                                style: const TextStyle(fontWeight: FontWeight.bold),
+                              ),
+                              subtitle: Text(
+                                payee['category'] != null
+                                    ? '${payee['accountNumber'] ?? ''} • ${payee['category']}'
+                                    : payee['accountNumber'] ?? '',
+                              ),
+                              onTap: () {
+                                Navigator.push(
+                                  context,
+                                  MaterialPageRoute(
+                                    builder: (context) => const BillPaymentScreen(),
+                                  ),
+                                );
+                              },
+                            ),
+                          )),
+                    const SizedBox(height: 24),
                     const Text(
                       'Quick Actions',
                       style: TextStyle(
@@ -256,7 +378,7 @@ class _DashboardScreenState extends State<DashboardScreen> {
               ),
             ),
       floatingActionButton: FloatingActionButton(
-        onPressed: _loadAccounts,
+        onPressed: _loadDashboard,
         backgroundColor: const Color(0xFF2E7D32),
         child: const Icon(Icons.refresh),
       ),
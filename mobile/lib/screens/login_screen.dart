@@ -16,6 +16,13 @@ class _LoginScreenState extends State<LoginScreen> {
   bool _isLoading = false;
   String? _errorMessage;
 
+  @override
+  void initState() {
+    super.initState();
+    // Explains why the user is here when a session has just expired
+    _errorMessage = Provider.of<AuthProvider>(context, listen: false).errorMessage;
+  }
+
   @override
   void dispose() {
     _usernameController.dispose();
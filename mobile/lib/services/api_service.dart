@@ -192,7 +192,12 @@ class ApiService {
       );
 
       if (response.statusCode == 200) {
-        return {'success': true, 'data': jsonDecode(response.body)};
+        final data = jsonDecode(response.body);
+        // Changing the password revokes older tokens; keep the fresh pair
+        if (data['token'] != null) {
+          await _authService.saveTokens(data);
+        }
+        return {'success': true, 'data': data};
       } else {
         final error = jsonDecode(response.body);
         return {
@@ -312,5 +317,51 @@ class ApiService {
       return {'success': false, 'message': 'Connection error: $e'};
     }
   }
-}
 
+  // Profile, accounts, recent transactions and payees in one request. Sections
+  // the server could not load in time are missing and listed in 'unavailable'.
+  Future<Map<String, dynamic>> getDashboard({int? transactions}) async {
+    try {
+      final headers = await _getHeaders();
+      final uri = Uri.parse('$baseUrl/dashboard').replace(
+        queryParameters:
+            transactions != null ? {'transactions': '$transactions'} : null,
+      );
+      final response = await http.get(uri, headers: headers);
+
+      if (response.statusCode == 200) {
+        return {'success': true, 'data': jsonDecode(response.body)};
+      } else {
+        return {
+          'success': false,
+          'message': 'Failed to fetch dashboard'
+        };
+      }
+    } catch (e) {
+      return {'success': false, 'message': 'Connection error: $e'};
+    }
+  }
+
+  // Full state when since is null, otherwise only what changed after that
+  // cursor. Keep the returned 'cursor' and call again while 'hasMore' is true.
+  Future<Map<String, dynamic>> sync({String? since}) async {
+    try {
+      final headers = await _getHeaders();
+      final uri = Uri.parse('$baseUrl/sync').replace(
+        queryParameters: since != null ? {'since': since} : null,
+      );
+      final response = await http.get(uri, headers: headers);
+
+      if (response.statusCode == 200) {
+        return {'success': true, 'data': jsonDecode(response.body)};
+      } else {
+        return {
+          'success': false,
+          'message': 'Failed to sync'
+        };
+      }
+    } catch (e) {
+      return {'success': false, 'message': 'Connection error: $e'};
+    }
+  }
+}
@@ -1,3 +1,4 @@
+import 'dart:async';
 import 'dart:convert';
 import 'package:http/http.dart' as http;
 import 'package:shared_preferences/shared_preferences.dart';
@@ -5,6 +6,14 @@ import '../config/api_config.dart';
 
 class AuthService {
   static String get baseUrl => ApiConfig.baseUrl;
+
+  // Shared by every AuthService instance, so concurrent callers wait on one refresh instead of each spending the
+  // single-use refresh token (the server treats a second use as theft and revokes the whole session)
+  static Future<String?>? _refreshInFlight;
+  static final StreamController<void> _sessionExpired = StreamController<void>.broadcast();
+
+  // Fires when the server rejects the refresh token: the session is over and the user has to log in again
+  static Stream<void> get sessionExpired => _sessionExpired.stream;
   
   Future<Map<String, dynamic>> login(String username, String password) async {
     try {
@@ -19,8 +28,8 @@ class AuthService {
 
       if (response.statusCode == 200) {
         final data = jsonDecode(response.body);
+        await saveTokens(data);
         final prefs = await SharedPreferences.getInstance();
-        await prefs.setString('token', data['token']);
         await prefs.setString('userId', data['userId'].toString());
         return {'success': true, 'data': data};
       } else {
@@ -50,13 +59,90 @@ class AuthService {
 
   Future<void> logout() async {
     final prefs = await SharedPreferences.getInstance();
+    final token = prefs.getString('token');
+    final refreshToken = prefs.getString('refreshToken');
+    try {
+      await http.post(
+        Uri.parse('$baseUrl/auth/logout'),
+        headers: {
+          'Content-Type': 'application/json',
+          if (token != null) 'Authorization': 'Bearer $token',
+        },
+        body: jsonEncode({'refreshToken': refreshToken}),
+      );
+    } catch (e) {
+      // Best effort; local tokens are cleared regardless
+    }
     await prefs.remove('token');
+    await prefs.remove('refreshToken');
+    await prefs.remove('tokenExpiresAt');
     await prefs.remove('userId');
   }
 
+  // Stores the access/refresh pair returned by login, refresh and change-password
+  Future<void> saveTokens(Map<String, dynamic> data) async {
+    final prefs = await SharedPreferences.getInstance();
+    await prefs.setString('token', data['token']);
+    if (data['refreshToken'] != null) {
+      await prefs.setString('refreshToken', data['refreshToken']);
+    }
+    if (data['expiresIn'] != null) {
+      final expiresAt = DateTime.now().millisecondsSinceEpoch + (data['expiresIn'] as num).toInt() * 1000;
+      await prefs.setInt('tokenExpiresAt', expiresAt);
+    }
+  }
+
+  // Returns the access token, renewing it first if it expires within the next 30 seconds. Null once the session
+  // has ended; an expired access token is never handed out.
   Future<String?> getToken() async {
     final prefs = await SharedPreferences.getInstance();
-    return prefs.getString('token');
+    final token = prefs.getString('token');
+    final expiresAt = prefs.getInt('tokenExpiresAt');
+    if (token != null &&
+        expiresAt != null &&
+        DateTime.now().millisecondsSinceEpoch > expiresAt - 30000) {
+      final renewed = await (_refreshInFlight ??= _refreshToken(prefs).whenComplete(() => _refreshInFlight = null));
+      if (renewed != null) {
+        return renewed;
+      }
+      // Renewal failed without ending the session (no connection); the old token is fine until it actually expires
+      return prefs.getString('token') != null && DateTime.now().millisecondsSinceEpoch < expiresAt ? token : null;
+    }
+    return token;
+  }
+
+  Future<String?> _refreshToken(SharedPreferences prefs) async {
+    final refreshToken = prefs.getString('refreshToken');
+    if (refreshToken == null) {
+      await _endSession(prefs);
+      return null;
+    }
+    try {
+      final response = await http.post(
+        Uri.parse('$baseUrl/auth/refresh'),
+        headers: {'Content-Type': 'application/json'},
+        body: jsonEncode({'refreshToken': refreshToken}),
+      );
+      if (response.statusCode == 200) {
+        final data = jsonDecode(response.body);
+        await saveTokens(data);
+        return data['token'];
+      }
+      if (response.statusCode == 401) {
+        await _endSession(prefs);
+      }
+    } catch (e) {
+      // No connection; the next call tries again
+    }
+    return null;
+  }
+
+  Future<void> _endSession(SharedPreferences prefs) async {
+    await prefs.remove('token');
+    await prefs.remove('refreshToken');
+    await prefs.remove('tokenExpiresAt');
+    await prefs.remove('userId');
+    _sessionExpired.add(null);
   }
 
   Future<String?> getUserId() async {